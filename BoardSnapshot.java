@@ -0,0 +1,157 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+public final class BoardSnapshot {
+    // A board saved as raw data -> header, piece in every cell, orientation of every cell, then the source image pixels as ints
+    // Restoring maps the file and copies the pixels straight into the image raster, no PNG is encoded or decoded
+    static final int MAGIC = 0x505A534E; // "PZSN" at the start of every snapshot
+    static final int VERSION = 2; // Layout of the file, bumped when it changes
+    static final int HEADER_BYTES = 28; // magic, version, rows, cols, width, height, alpha (int each)
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN; // Matches the machines the game runs on, so ints copy as they are
+
+    private BoardSnapshot() {
+    }
+
+    // Where the game keeps the snapshot of the puzzle it was closed on
+    static Path defaultFile() {
+        String file = System.getProperty("puzzle.snapshot.file");
+        if (file != null) {
+            return Paths.get(file);
+        }
+        return Paths.get(System.getProperty("user.home"), ".puzzle-api", "snapshot.bin");
+    }
+
+    // Writes the board to a file, through a temporary file so a crash never leaves half a snapshot behind
+    public static void save(PuzzleBoard board, Path file) throws IOException {
+        BufferedImage image = board.solvedImage;
+        int size = board.getPieces().size();
+        int width = image.getWidth(), height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        long pixelByteCount = (long) width * height * 4;
+        if (HEADER_BYTES + (long) size * 8 + pixelByteCount > Integer.MAX_VALUE) {
+            throw new IOException("Image is too large to snapshot: " + width + "x" + height);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(board.getRows()).putInt(board.getCols())
+                .putInt(width).putInt(height).putInt(alpha ? 1 : 0);
+        header.flip();
+
+        // Orientations are padded to a whole int, so the pixels that follow stay aligned
+        ByteBuffer layout = ByteBuffer.allocate(size * 4 + (size + 3) / 4 * 4).order(ORDER);
+        for (ImagePiece piece : board.getPieces()) {
+            layout.putInt(piece.correctRow * board.getCols() + piece.correctCol);
+        }
+        for (ImagePiece piece : board.getPieces()) {
+            layout.put((byte) piece.orientationIndex());
+        }
+        layout.clear();
+
+        // Pixels row by row, so an image that is a view into a bigger raster is saved correctly
+        BufferedImage packed = TileHash.isIntPacked(image) ? image : copy(image, alpha);
+        int[] pixels = TileHash.intPixels(packed);
+        int stride = TileHash.pixelStride(packed), offset = TileHash.pixelOffset(packed);
+        ByteBuffer pixelBytes = ByteBuffer.allocateDirect((int) pixelByteCount).order(ORDER);
+        IntBuffer pixelInts = pixelBytes.asIntBuffer();
+        for (int y = 0; y < height; y++) {
+            pixelInts.put(pixels, offset + y * stride, width);
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "tmp", null);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] parts = {header, layout, pixelBytes};
+            while (pixelBytes.hasRemaining()) {
+                channel.write(parts);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Reads a board back from a file, the pieces are sliced from the restored image and put back in their saved cells
+    // A file that is cut short or does not hold a valid board fails with an IOException, before anything is built from it
+    public static PuzzleBoard restore(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Snapshot is cut short: " + file);
+            }
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is too large: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ORDER);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+                throw new IOException("Not a puzzle snapshot: " + file);
+            }
+            int rows = mapped.getInt(8), cols = mapped.getInt(12);
+            int width = mapped.getInt(16), height = mapped.getInt(20);
+            boolean alpha = mapped.getInt(24) != 0;
+            if (rows <= 0 || cols <= 0 || width < cols || height < rows) {
+                throw new IOException("Snapshot has an invalid size: " + file);
+            }
+            long size = (long) rows * cols;
+            long layoutBytes = size * 4 + (size + 3) / 4 * 4;
+            if (channel.size() != HEADER_BYTES + layoutBytes + (long) width * height * 4) {
+                throw new IOException("Snapshot is " + channel.size() + " bytes, its header needs "
+                        + (HEADER_BYTES + layoutBytes + (long) width * height * 4) + ": " + file);
+            }
+
+            int[] permutation = new int[(int) size];
+            mapped.position(HEADER_BYTES);
+            mapped.asIntBuffer().get(permutation);
+            byte[] orientations = new byte[(int) size];
+            mapped.position(HEADER_BYTES + (int) size * 4);
+            mapped.get(orientations);
+            boolean[] seen = new boolean[(int) size];
+            for (int i = 0; i < size; i++) {
+                if (permutation[i] < 0 || permutation[i] >= size || seen[permutation[i]]
+                        || orientations[i] < 0 || orientations[i] >= Orientation.COUNT) {
+                    throw new IOException("Snapshot has an invalid layout: " + file);
+                }
+                seen[permutation[i]] = true;
+            }
+
+            // One bulk copy from the mapping into the raster of the new image
+            BufferedImage image = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            mapped.position(HEADER_BYTES + (int) layoutBytes);
+            mapped.asIntBuffer().get(pixels);
+
+            // The pieces were moved since the board was shuffled, so no seed is saved -> it would no longer give this layout
+            // The restored board has no seed, and a move log of it cannot be replayed from one
+            ShuffleEngine.Layout layout = new ShuffleEngine.Layout(0, null, permutation, orientations);
+            return new PuzzleBoard(rows, cols, image, layout);
+        }
+    }
+
+    // Deletes the snapshot, once its puzzle is solved there is nothing left to resume
+    public static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Copies an image into one int per pixel
+    static BufferedImage copy(BufferedImage image, boolean alpha) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(),
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = copy.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return copy;
+    }
+}
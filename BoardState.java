@@ -0,0 +1,37 @@
+public interface BoardState {
+    // Number of rows in the puzzle
+    int getRows();
+
+    // Number of columns in the puzzle
+    int getCols();
+
+    // Swaps the pieces at two cells, each piece keeps its rotation and flip
+    void swapPieces(int row1, int col1, int row2, int col2);
+
+    // Rotates the piece at a cell counterclockwise 90 degrees
+    void rotatePieceLeft(int row, int col);
+
+    // Rotates the piece at a cell clockwise 90 degrees
+    void rotatePieceRight(int row, int col);
+
+    // Flips the piece at a cell horizontally
+    void flipPiece(int row, int col);
+
+    // Whether every piece is in its correct cell, not rotated and not flipped
+    boolean isSolved();
+
+    // Shuffles the pieces and gives them random rotations and flips, from a new seed
+    void shuffleAndTransformPieces();
+
+    // Shuffles the pieces into the layout a seed gives, see ShuffleEngine
+    void shuffle(long seed, ShuffleEngine.Difficulty difficulty);
+
+    // Puts every piece in the cell and orientation a layout gives it
+    void applyLayout(ShuffleEngine.Layout layout);
+
+    // Seed the board was last shuffled with
+    long getSeed();
+
+    // Profile the board was last shuffled with, null when it was laid out from a saved layout instead of a seed
+    ShuffleEngine.Difficulty getDifficulty();
+}
@@ -0,0 +1,335 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+public class ConcurrentBoard implements BoardState {
+    // A board many players move on at once -> every cell is one int, piece << 3 | orientation, changed only by compare-and-set
+    // A move locks the cells it touches by setting their top bit, and gives up with CONFLICT instead of waiting when one is
+    // already locked, so two players grabbing the same tile never block each other. Every applied move gets the next number
+    // of one global sequence while its cells are locked, and is published in that order to a ring subscribers read from
+    static final int LOCKED = 1 << 31; // Set on a cell while a move is changing it
+    static final int ORIENTATION_BITS = 3; // Low bits of a cell holding the orientation, see Orientation
+    static final int ORIENTATION_MASK = (1 << ORIENTATION_BITS) - 1;
+    static final int FEED_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("puzzle.concurrent.feedSize", 4096)));
+
+    // What happened to a move that was tried
+    enum Result {
+        APPLIED, // The move is on the board and in the feed
+        CONFLICT, // Another player was moving one of the same pieces, nothing changed
+        INVALID // The move is off the board, nothing changed
+    }
+
+    // One entry of the change feed, immutable so a reader either sees all of it or none of it
+    static final class Change {
+        final long seq; // Position in the global order of changes, starting at 1
+        final Move move; // The move that was applied, null when the whole board was laid out again and has to be read anew
+
+        Change(long seq, Move move) {
+            this.seq = seq;
+            this.move = move;
+        }
+    }
+
+    // Every cell of the board at one point of the change feed
+    static final class Snapshot {
+        final long seq; // Last change the snapshot includes
+        final int[] pieces; // Cell -> piece in that cell
+        final byte[] orientations; // Cell -> orientation of the piece in that cell
+
+        Snapshot(long seq, int[] pieces, byte[] orientations) {
+            this.seq = seq;
+            this.pieces = pieces;
+            this.orientations = orientations;
+        }
+    }
+
+    // A reader of the change feed, picking up where it left off on every poll. Not shared between threads
+    final class Subscription {
+        Snapshot snapshot; // The board when the subscription started or last resynced, the changes polled apply on top of it
+        long cursor; // Last change handed out
+        boolean lagged; // Changes were overwritten before they were read, the subscriber has to start again from resync()
+
+        Subscription() {
+            resync();
+        }
+
+        // Hands every change published since the last poll to the consumer in order, at most max of them, and returns how many
+        // Stops early at a change that is still being published, or when the subscriber fell too far behind
+        public int poll(Consumer<Change> consumer, int max) {
+            int delivered = 0;
+            while (delivered < max && !lagged) {
+                long next = cursor + 1;
+                Change change = feed.get((int) (next & (FEED_SIZE - 1)));
+                if (change == null || change.seq < next) {
+                    break; // Not published yet
+                }
+                if (change.seq > next) {
+                    lagged = true; // The ring came around and overwrote it
+                    break;
+                }
+                consumer.accept(change);
+                cursor = next;
+                delivered++;
+            }
+            return delivered;
+        }
+
+        public boolean isLagged() {
+            return lagged;
+        }
+
+        public Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        // Starts the subscription again from a fresh snapshot, for a subscriber that lagged
+        public Snapshot resync() {
+            snapshot = snapshot();
+            cursor = snapshot.seq;
+            lagged = false;
+            return snapshot;
+        }
+    }
+
+    final int rows; // # of rows
+    final int cols; // # of columns
+    final AtomicIntegerArray cells; // Cell -> piece << 3 | orientation, with LOCKED set while a move is changing it
+    final AtomicInteger correctCount = new AtomicInteger(); // # of cells holding their own piece, not rotated and not flipped
+    final AtomicLong sequence = new AtomicLong(); // Number of the last change, taken while the cells of the change are locked
+    final AtomicReferenceArray<Change> feed = new AtomicReferenceArray<>(FEED_SIZE); // Change seq sits at seq % FEED_SIZE
+    final LongAdder conflicts = new LongAdder(); // Moves that gave up because a cell was locked
+    volatile long seed; // Seed the pieces were last shuffled with
+    volatile ShuffleEngine.Difficulty difficulty; // Profile the pieces were last shuffled with
+
+    // The constructor, shuffled from a new seed
+    ConcurrentBoard(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.cells = new AtomicIntegerArray(rows * cols);
+        shuffleAndTransformPieces();
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    // The piece in a cell, identified by the cell it belongs in
+    public int getPieceAt(int row, int col) {
+        return (cells.get(row * cols + col) & ~LOCKED) >>> ORIENTATION_BITS;
+    }
+
+    // The orientation of the piece in a cell
+    public int getOrientationAt(int row, int col) {
+        return cells.get(row * cols + col) & ORIENTATION_MASK;
+    }
+
+    // Applies a move unless another player is moving one of its pieces right now, never waits
+    public Result tryApply(Move move) {
+        if (!move.fits(rows, cols)) {
+            return Result.INVALID;
+        }
+        int first = move.row1 * cols + move.col1;
+        int a = tryLock(first);
+        if (a < 0) {
+            conflicts.increment();
+            return Result.CONFLICT;
+        }
+        if (move.type != Move.Type.SWAP) {
+            int orientation = a & ORIENTATION_MASK;
+            int turned = move.type == Move.Type.ROTATE_LEFT ? Orientation.rotateLeft(orientation)
+                    : move.type == Move.Type.ROTATE_RIGHT ? Orientation.rotateRight(orientation)
+                    : Orientation.flip(orientation);
+            int value = a & ~ORIENTATION_MASK | turned;
+            adjustCorrect(correct(first, value) - correct(first, a));
+            publish(move);
+            cells.set(first, value); // Also unlocks the cell
+            return Result.APPLIED;
+        }
+        int second = move.row2 * cols + move.col2;
+        if (second == first) {
+            cells.set(first, a);
+            return Result.APPLIED; // Swapping a piece with itself changes nothing, so nothing is published
+        }
+        int b = tryLock(second);
+        if (b < 0) {
+            cells.set(first, a);
+            conflicts.increment();
+            return Result.CONFLICT;
+        }
+        adjustCorrect(correct(first, b) + correct(second, a) - correct(first, a) - correct(second, b));
+        publish(move);
+        cells.set(second, a);
+        cells.set(first, b);
+        return Result.APPLIED;
+    }
+
+    // Locks a cell and returns what it held, or -1 when another move holds it
+    int tryLock(int index) {
+        while (true) {
+            int value = cells.get(index);
+            if ((value & LOCKED) != 0) {
+                return -1;
+            }
+            if (cells.compareAndSet(index, value, value | LOCKED)) {
+                return value;
+            }
+            // The cell changed between the read and the swap, but nobody holds it, so it is read again
+        }
+    }
+
+    // Locks a cell, waiting for whoever holds it, and returns what it held
+    int lock(int index) {
+        while (true) {
+            int value = tryLock(index);
+            if (value >= 0) {
+                return value;
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    // Returns 1 when a cell value is the cell's own piece in the original orientation, otherwise 0
+    static int correct(int index, int value) {
+        return value == index << ORIENTATION_BITS ? 1 : 0;
+    }
+
+    // Moves the solved count, most moves leave it as it is and then skip the shared counter entirely
+    void adjustCorrect(int delta) {
+        if (delta != 0) {
+            correctCount.addAndGet(delta);
+        }
+    }
+
+    // Gives a change the next sequence number and puts it in the ring, called while its cells are locked
+    void publish(Move move) {
+        long seq = sequence.incrementAndGet();
+        Change change = new Change(seq, move);
+        int slot = (int) (seq & (FEED_SIZE - 1));
+        while (true) {
+            Change old = feed.get(slot);
+            if (old != null && old.seq > seq) {
+                return; // A writer a whole ring ahead already took the slot, readers of this change will see they lagged
+            }
+            if (feed.compareAndSet(slot, old, change)) {
+                return;
+            }
+        }
+    }
+
+    // A reader of every change made from now on, along with the board as it is right now
+    public Subscription subscribe() {
+        return new Subscription();
+    }
+
+    // Every cell at one point of the change feed -> all cells are locked in order, so no move is half applied while copying
+    public Snapshot snapshot() {
+        int size = cells.length();
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = lock(i);
+        }
+        long seq = sequence.get();
+        for (int i = 0; i < size; i++) {
+            cells.set(i, values[i]);
+        }
+        int[] pieces = new int[size];
+        byte[] orientations = new byte[size];
+        for (int i = 0; i < size; i++) {
+            pieces[i] = values[i] >>> ORIENTATION_BITS;
+            orientations[i] = (byte) (values[i] & ORIENTATION_MASK);
+        }
+        return new Snapshot(seq, pieces, orientations);
+    }
+
+    // # of moves that gave up because of another player
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    // Number of the last change published
+    public long getSequence() {
+        return sequence.get();
+    }
+
+    // Applies a move, waiting out any other player moving the same pieces
+    void apply(Move move) {
+        while (tryApply(move) == Result.CONFLICT) {
+            Thread.onSpinWait();
+        }
+    }
+
+    @Override
+    public void swapPieces(int row1, int col1, int row2, int col2) {
+        apply(Move.swap(row1, col1, row2, col2));
+    }
+
+    @Override
+    public void rotatePieceLeft(int row, int col) {
+        apply(Move.rotateLeft(row, col));
+    }
+
+    @Override
+    public void rotatePieceRight(int row, int col) {
+        apply(Move.rotateRight(row, col));
+    }
+
+    @Override
+    public void flipPiece(int row, int col) {
+        apply(Move.flip(row, col));
+    }
+
+    @Override
+    public boolean isSolved() {
+        return correctCount.get() == cells.length();
+    }
+
+    // Shuffles the pieces from a new seed, the same way PuzzleBoard does
+    @Override
+    public void shuffleAndTransformPieces() {
+        shuffle(ShuffleEngine.nextSeed(), ShuffleEngine.DEFAULT_DIFFICULTY);
+    }
+
+    @Override
+    public void shuffle(long seed, ShuffleEngine.Difficulty difficulty) {
+        applyLayout(ShuffleEngine.layout(cells.length(), seed, difficulty));
+    }
+
+    // Lays out the whole board at once with every cell locked, then publishes one change telling subscribers to read it anew
+    @Override
+    public void applyLayout(ShuffleEngine.Layout layout) {
+        int size = cells.length();
+        for (int i = 0; i < size; i++) {
+            lock(i);
+        }
+        int correct = 0;
+        for (int i = 0; i < size; i++) {
+            correct += correct(i, layout.permutation[i] << ORIENTATION_BITS | layout.orientations[i]);
+        }
+        correctCount.set(correct);
+        this.seed = layout.seed;
+        this.difficulty = layout.difficulty;
+        publish(null);
+        for (int i = 0; i < size; i++) {
+            cells.set(i, layout.permutation[i] << ORIENTATION_BITS | layout.orientations[i]);
+        }
+    }
+
+    @Override
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public ShuffleEngine.Difficulty getDifficulty() {
+        return difficulty;
+    }
+}
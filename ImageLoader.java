@@ -0,0 +1,309 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class ImageLoader {
+    // Shared loader used by the game, caching under ~/.puzzle-api/cache unless puzzle.cache.dir is set
+    static final ImageLoader SHARED = new ImageLoader(OpenAI.CLIENT, defaultCacheDir(), Integer.getInteger("puzzle.cache.memoryImages", 4));
+    // Shortest side images are decoded to, bigger sources are subsampled while decoding since the board never shows more
+    static final int TARGET_SIZE = Integer.getInteger("puzzle.decode.targetSize", PuzzleGUI.BOARD_SIZE);
+
+    HttpClient client; // Pooled HTTP client used for downloads
+    Path blobDir; // Image bytes on disk, each file named after the SHA-256 of its content, downloads are streamed into it
+    Path keyDir; // Small files mapping a URL or prompt key to the content hash it resolved to
+    Map<String, String> keys = new ConcurrentHashMap<>(); // Key -> content hash, already looked up this run
+    LinkedHashMap<String, BufferedImage> images; // Content hash@size -> decoded image, least recently used first
+
+    // The constructor
+    ImageLoader(HttpClient client, Path cacheDir, int memoryImages) {
+        this.client = client;
+        this.blobDir = cacheDir.resolve("blobs");
+        this.keyDir = cacheDir.resolve("keys");
+        this.images = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest) {
+                return size() > memoryImages;
+            }
+        };
+        try {
+            Files.createDirectories(blobDir);
+            Files.createDirectories(keyDir);
+        } catch (IOException e) {
+            e.printStackTrace(); // The disk cache is optional, images are still cached in memory
+        }
+    }
+
+    // Where the disk cache lives by default
+    static Path defaultCacheDir() {
+        String dir = System.getProperty("puzzle.cache.dir");
+        return dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".puzzle-api", "cache");
+    }
+
+    // Cache key for an image URL
+    public static String urlKey(String imageUrl) {
+        return "url:" + imageUrl;
+    }
+
+    // Loads the image at the URL, from the cache when it was loaded before, blocking until it is ready
+    public BufferedImage load(String imageUrl) {
+        try {
+            BufferedImage image = cached(urlKey(imageUrl));
+            if (image != null) {
+                return image;
+            }
+            return image(download(imageUrl, null, urlKey(imageUrl)).join());
+        } catch (Exception e) {
+            e.printStackTrace(); // Prints exception case
+            return PuzzleBoard.emptyImage(); // Default image if it fails
+        }
+    }
+
+    // Returns the cached image for a URL or prompt key, or null when it has never been stored
+    public BufferedImage cached(String key) {
+        String hash = keys.get(key);
+        if (hash == null) {
+            hash = readKey(key);
+            if (hash == null) {
+                return null;
+            }
+            keys.put(key, hash);
+        }
+        return image(hash);
+    }
+
+    // Maps every key to a content hash, on disk and in memory
+    void link(String hash, String... keysToStore) {
+        try {
+            for (String key : keysToStore) {
+                writeAtomically(keyDir.resolve(sha256(key.getBytes(StandardCharsets.UTF_8))), hash.getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // The disk cache is best effort, the image is still usable
+        }
+        for (String key : keysToStore) {
+            keys.put(key, hash);
+        }
+    }
+
+    // Deletes the bytes of a content hash from memory and disk, keys pointing at it become misses
+    public void remove(String hash) {
+        synchronized (images) {
+            images.keySet().removeIf(key -> key.startsWith(hash + "@"));
+        }
+        keys.values().removeIf(hash::equals);
+        try {
+            Files.deleteIfExists(blobDir.resolve(hash));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Whether the bytes of a content hash are still stored on disk
+    public boolean contains(String hash) {
+        return Files.exists(blobDir.resolve(hash));
+    }
+
+    // # of bytes stored on disk for a content hash, 0 when they are gone
+    public long size(String hash) {
+        try {
+            return Files.size(blobDir.resolve(hash));
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Downloads the image at the URL without blocking, streaming the body straight into the blob store while it is hashed,
+    // so the encoded image is never held in memory. Maps every key to the stored bytes and completes with their hash,
+    // reporting progress when the server sends a content length. Cancelling the returned future stops the download
+    public CompletableFuture<String> download(String imageUrl, PuzzleLoader.ProgressListener listener, String... keysToStore) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long start = Metrics.start();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(imageUrl)).timeout(Duration.ofMinutes(2)).GET().build();
+        CompletableFuture<HttpResponse<InputStream>> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        result.whenComplete((hash, error) -> response.cancel(true)); // No-op once the response arrived
+        response.whenCompleteAsync((r, error) -> {
+            if (error != null) {
+                Metrics.DOWNLOAD_FAILURES.increment();
+                result.completeExceptionally(error);
+                return;
+            }
+            Path temp = null;
+            try (InputStream in = r.body()) {
+                if (r.statusCode() / 100 != 2) {
+                    throw new IOException("Image download failed with HTTP " + r.statusCode());
+                }
+                long length = r.headers().firstValueAsLong("Content-Length").orElse(-1);
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                temp = Files.createTempFile(blobDir, "tmp", null);
+                long total = 0;
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    byte[] buffer = new byte[1 << 16];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        if (result.isDone()) {
+                            throw new CancellationException("Image download was cancelled");
+                        }
+                        digest.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                        total += read;
+                        if (length > 0 && listener != null) {
+                            listener.progress("Downloading image", (int) (total * 100 / length));
+                        }
+                    }
+                }
+                String hash = hex(digest.digest());
+                Path blob = blobDir.resolve(hash);
+                if (Files.exists(blob)) {
+                    Files.delete(temp); // Same content is only ever stored once
+                } else {
+                    Files.move(temp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                temp = null;
+                link(hash, keysToStore);
+                Metrics.DOWNLOAD_LATENCY.stop(start);
+                Metrics.DOWNLOAD_BYTES.add(total);
+                result.complete(hash);
+            } catch (Exception e) {
+                Metrics.DOWNLOAD_FAILURES.increment();
+                result.completeExceptionally(e);
+            } finally {
+                if (temp != null) {
+                    try {
+                        Files.deleteIfExists(temp);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, PuzzleLoader.WORKERS);
+        return result;
+    }
+
+    // Returns the image for a content hash decoded for the board, reading it from disk when it is not in memory
+    public BufferedImage image(String hash) {
+        return image(hash, TARGET_SIZE);
+    }
+
+    // Returns the image for a content hash decoded to at least the given size on both sides, or at full size when it is smaller
+    public BufferedImage image(String hash, int targetSize) {
+        String memoryKey = hash + "@" + targetSize; // The same bytes can be in memory at more than one size
+        synchronized (images) {
+            BufferedImage image = images.get(memoryKey);
+            if (image != null) {
+                return image;
+            }
+        }
+        try {
+            Path blob = blobDir.resolve(hash);
+            if (!Files.exists(blob)) {
+                return null; // The key outlived its bytes, treat it as a miss
+            }
+            BufferedImage image = decode(blob, targetSize, targetSize);
+            synchronized (images) {
+                images.put(memoryKey, image);
+            }
+            return image;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Reads the content hash a key points to from disk, or null when there is none
+    String readKey(String key) {
+        try {
+            Path file = keyDir.resolve(sha256(key.getBytes(StandardCharsets.UTF_8)));
+            return Files.exists(file) ? new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim() : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Writes a file through a temporary file so a crash never leaves a half written cache entry
+    static void writeAtomically(Path target, byte[] bytes) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), "tmp", null);
+        Files.write(temp, bytes);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Decodes an image file, streaming it from disk
+    // Rows and columns are skipped while decoding, so only an image of about the target size is ever allocated
+    static BufferedImage decode(Path file, int targetWidth, int targetHeight) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            if (in == null) {
+                throw new IOException("Could not open " + file);
+            }
+            ImageReader reader = reader(in);
+            try {
+                return read(reader, targetWidth, targetHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Finds a reader for the image format and points it at the stream
+    static ImageReader reader(ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Downloaded file is not a supported image format");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true); // Forward only and no metadata, the reader then keeps nothing it has passed
+        return reader;
+    }
+
+    // Reads the first image, skipping every n-th row and column with the largest n that still leaves the target size
+    static BufferedImage read(ImageReader reader, int targetWidth, int targetHeight) throws IOException {
+        long start = Metrics.start();
+        int width = reader.getWidth(0), height = reader.getHeight(0);
+        int step = Math.max(1, Math.min(width / Math.max(1, targetWidth), height / Math.max(1, targetHeight)));
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        BufferedImage image = reader.read(0, param);
+        Metrics.DECODE_TIME.stop(start);
+        return image;
+    }
+
+    // Hex SHA-256 of the given bytes
+    static String sha256(byte[] bytes) {
+        try {
+            return hex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JVM ships SHA-256
+        }
+    }
+
+    // Lowercase hex of a digest
+    static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
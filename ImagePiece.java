@@ -1,6 +1,6 @@
-import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
-import java.awt.geom.AffineTransform;
 
 public class ImagePiece {
     int correctRow; // Correct row of the original image
@@ -10,6 +10,7 @@ public class ImagePiece {
     int rotation; // Rotation angle in degrees
     boolean flipped; // Determines if the piece is flipped or not
     BufferedImage image; // Image of the piece
+    int[] looks; // Orientation -> cell whose piece looks exactly like this one shown that way, -1 for none, null without an image
 
     // The constructor
     ImagePiece(int correctRow, int correctCol, BufferedImage image) {
@@ -47,49 +48,17 @@ public class ImagePiece {
         flipped = !flipped;
     }
 
-    // Get the original image of the piece without any transformation to know how the solved piece should look like
-    public BufferedImage getImage() {
-        if (image == null) {
-            throw new IllegalStateException("Image has not yet been loaded in :(");
-        }
-
-        // Sets up the origin of the puzzle piece to now let all transformation to the puzzle piece happen in relation to the image's top left corner
-        BufferedImage transformedImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2d = transformedImage.createGraphics();
-        AffineTransform transform = new AffineTransform();
-        transform.translate(image.getWidth() / 2, image.getHeight() / 2);
-
-        // Apply the rotation if needed
-        if (rotation != 0) {
-            transform.rotate(Math.toRadians(rotation));
-        }
-
-        // Apply the flip if needed
-        if (flipped) {
-            transform.scale(-1, 1);
-        }
-
-        // Sets the origin back to the top left corner of the puzzle piece after performing a transformation
-        transform.translate(-image.getWidth() / 2, -image.getHeight() / 2);
-
-        // Draw the new transformed image onto the new buffered image
-        g2d.drawImage(image, transform, null); // We do not care about the loading state of the image, only copying the image
-        g2d.dispose();
-
-        // Return the new transformed image
-        return transformedImage;
+    // Index of the current orientation -> rotations 0-3, plus 4 if flipped
+    int orientationIndex() {
+        return Orientation.of(rotation, flipped);
     }
 
-    // Gets the correct image of the piece without any transformations
-    public BufferedImage getCorrectImage() {
-        BufferedImage correctImage = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2d = correctImage.createGraphics();
-
-        // Draws the image onto the correctImage since no transformations happened
-        g2d.drawImage(image, 0, 0, null); // We do not care about the loading state of the image, only copying the image
-        g2d.dispose();
-
-        // Return the new correct image
-        return correctImage;
+    // Creates an image for a piece in the screen's native pixel layout, so drawing it needs no conversion
+    static BufferedImage createTileImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        return config.createCompatibleImage(width, height);
     }
 }
@@ -0,0 +1,219 @@
+import java.awt.image.BufferedImage;
+import java.net.http.HttpClient;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ImagePrefetcher {
+    // Images that are ready or on their way for one prompt
+    static final class Pool {
+        final String prompt; // Prompt the images are generated for
+        final ArrayDeque<BufferedImage> ready = new ArrayDeque<>(); // Decoded images waiting to be played
+        final ArrayDeque<CompletableFuture<BufferedImage>> waiting = new ArrayDeque<>(); // Callers waiting for an image in flight
+        int inFlight; // Images requested from the API that have not arrived yet
+
+        Pool(String prompt) {
+            this.prompt = prompt;
+        }
+    }
+
+    HttpClient client; // Pooled HTTP client used for the API calls
+    String apiUrl; // Image generation endpoint, can be a local mock server
+    String apiKey; // Key sent to the image generation endpoint
+    ImageLoader images; // Downloads, decodes and stores the generated images
+    int depth; // Most images ready or in flight per prompt, nothing more is requested once a pool is full
+    int batchSize; // Most images asked for in one API call
+    Map<String, Pool> pools = new ConcurrentHashMap<>(); // Prompt -> pool
+
+    AtomicLong hits = new AtomicLong(); // Puzzles started from the pool
+    AtomicLong misses = new AtomicLong(); // Puzzles that found nothing in the pool
+    AtomicLong failures = new AtomicLong(); // Images that could not be generated or downloaded
+
+    // The constructor
+    ImagePrefetcher(HttpClient client, String apiUrl, String apiKey, ImageLoader images, int depth, int batchSize) {
+        this.client = client;
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.images = images;
+        this.depth = depth;
+        this.batchSize = batchSize;
+    }
+
+    // Starts filling the pool of a prompt in the background
+    public void prefetch(String prompt) {
+        refill(pools.computeIfAbsent(prompt.trim(), Pool::new));
+    }
+
+    // Starts filling the pools of several prompts in the background
+    public void prefetch(List<String> prompts) {
+        for (String prompt : prompts) {
+            prefetch(prompt);
+        }
+    }
+
+    // Takes the next image for the prompt from the pool, or returns null when nothing is ready or on its way
+    public CompletableFuture<BufferedImage> next(String prompt) {
+        Pool pool = pools.get(prompt.trim());
+        CompletableFuture<BufferedImage> result = null;
+        if (pool != null) {
+            synchronized (pool) {
+                if (!pool.ready.isEmpty()) {
+                    result = CompletableFuture.completedFuture(pool.ready.poll());
+                } else if (pool.inFlight > pool.waiting.size()) {
+                    result = new CompletableFuture<>();
+                    pool.waiting.add(result); // Gets the next image that arrives
+                }
+            }
+        }
+        if (result == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (!result.isDone()) {
+            CompletableFuture<BufferedImage> waiter = result;
+            waiter.whenComplete((image, error) -> {
+                if (waiter.isCancelled()) {
+                    synchronized (pool) {
+                        pool.waiting.remove(waiter); // The image it waited for goes to the next caller instead
+                    }
+                }
+            });
+        }
+        refill(pool); // Replaces the image that was just taken
+        return result;
+    }
+
+    // Puts back an image taken with next() that the caller did not play after all, so the next caller gets it
+    public void giveBack(String prompt, BufferedImage image) {
+        Pool pool = pools.get(prompt.trim());
+        if (pool == null) {
+            return;
+        }
+        synchronized (pool) {
+            pool.inFlight++; // Handed out again as if it just arrived
+        }
+        arrived(pool, image);
+    }
+
+    // Requests as many images as the pool has room for, in batches, waiting for room for a whole batch unless the pool ran dry
+    void refill(Pool pool) {
+        while (true) {
+            int n;
+            synchronized (pool) {
+                int available = pool.ready.size() + pool.inFlight - pool.waiting.size(); // Images nobody has claimed yet
+                int room = depth - available;
+                if (room <= 0 || (room < batchSize && available > 0)) {
+                    return; // Backpressure, the pool is full enough until someone takes an image
+                }
+                n = Math.min(room, batchSize);
+                pool.inFlight += n;
+            }
+            request(pool, n);
+        }
+    }
+
+    // Asks the API for n images for the pool, each one is downloaded and added as soon as its URL is there
+    void request(Pool pool, int n) {
+        OpenAI.fetchImagesAsync(client, apiUrl, apiKey, pool.prompt, n).whenComplete((urls, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                failed(pool, n);
+                return;
+            }
+            if (urls.size() < n) {
+                failed(pool, n - urls.size()); // The API returned fewer images than asked for
+            }
+            // Downloads and decodes every image of the batch in parallel
+            for (String imageUrl : urls.subList(0, Math.min(urls.size(), n))) {
+                images.download(imageUrl, null, ImageLoader.urlKey(imageUrl))
+                        .thenApplyAsync(images::image, PuzzleLoader.WORKERS)
+                        .whenComplete((image, downloadError) -> {
+                            if (downloadError != null) {
+                                downloadError.printStackTrace();
+                                failed(pool, 1);
+                            } else if (image == null) {
+                                failed(pool, 1); // Downloaded but could not be read back or decoded
+                            } else {
+                                arrived(pool, image);
+                            }
+                        });
+            }
+        });
+    }
+
+    // Hands an image that just arrived to a waiting caller, or keeps it ready in the pool
+    void arrived(Pool pool, BufferedImage image) {
+        while (true) {
+            CompletableFuture<BufferedImage> waiter;
+            synchronized (pool) {
+                waiter = pool.waiting.poll();
+                if (waiter == null) {
+                    pool.inFlight--;
+                    pool.ready.add(image);
+                    return;
+                }
+            }
+            if (waiter.complete(image)) { // Completed outside the lock, a cancelled waiter does not use up the image
+                synchronized (pool) {
+                    pool.inFlight--;
+                }
+                return;
+            }
+        }
+    }
+
+    // Gives up on images that could not be generated, failing waiters that nothing is on its way for anymore
+    void failed(Pool pool, int count) {
+        failures.addAndGet(count);
+        List<CompletableFuture<BufferedImage>> abandoned = new ArrayList<>();
+        synchronized (pool) {
+            pool.inFlight -= count;
+            while (pool.waiting.size() > pool.inFlight) {
+                abandoned.add(pool.waiting.pollLast());
+            }
+        }
+        for (CompletableFuture<BufferedImage> waiter : abandoned) {
+            waiter.completeExceptionally(new IllegalStateException("Prefetching an image for \"" + pool.prompt + "\" failed"));
+        }
+    }
+
+    // Fraction of puzzles that were started from the pool
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    // Images ready to play for a prompt
+    public int readyCount(String prompt) {
+        Pool pool = pools.get(prompt.trim());
+        if (pool == null) {
+            return 0;
+        }
+        synchronized (pool) {
+            return pool.ready.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImagePrefetcher[hits=" + hits + ", misses=" + misses + ", failures=" + failures
+                + ", hitRate=" + String.format("%.2f", getHitRate()) + "]";
+    }
+}
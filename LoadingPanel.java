@@ -0,0 +1,38 @@
+import javax.swing.*;
+import java.awt.*;
+
+public class LoadingPanel extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    JLabel status; // Shows which stage of loading is running
+    JProgressBar progress; // Shows how far along the current stage is
+
+    // The constructor, sized like the puzzle board so the frame does not jump once it is ready
+    LoadingPanel(String prompt) {
+        super(new GridBagLayout());
+        setPreferredSize(new Dimension(500, 550));
+        setBackground(Color.WHITE);
+
+        status = new JLabel("Generating \"" + prompt + "\"...");
+        progress = new JProgressBar(0, 100);
+        progress.setIndeterminate(true);
+        progress.setStringPainted(false);
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridx = 0;
+        c.insets = new Insets(5, 5, 5, 5);
+        add(status, c);
+        add(progress, c);
+    }
+
+    // Updates the label and the progress bar, safe to call from any thread
+    public void update(String stage, int percent) {
+        SwingUtilities.invokeLater(() -> {
+            status.setText(stage + "...");
+            progress.setIndeterminate(percent < 0);
+            if (percent >= 0) {
+                progress.setValue(percent);
+            }
+        });
+    }
+}
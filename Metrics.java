@@ -0,0 +1,312 @@
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Metrics {
+    // Counters, latency histograms and rates for the hot paths, exported over JMX and a local text endpoint
+    // Turned on with -Dpuzzle.metrics=true, when off every call returns right away and the JIT drops the check entirely
+    static final boolean ENABLED = Boolean.getBoolean("puzzle.metrics");
+    static final int PORT = Integer.getInteger("puzzle.metrics.port", 0); // Port of the text endpoint on localhost, 0 for none
+
+    static final List<Metric> REGISTRY = new ArrayList<>(); // Every metric in the order it is exported
+
+    static final Counter API_REQUESTS = register(new Counter("openai.requests"));
+    static final Counter API_FAILURES = register(new Counter("openai.failures"));
+    static final Counter API_RETRIES = register(new Counter("openai.retries"));
+    static final Counter API_OVERLOADED = register(new Counter("openai.overloaded"));
+    static final Counter API_BYTES = register(new Counter("openai.bytes"));
+    static final Histogram API_LATENCY = register(new Histogram("openai.latency"));
+    static final Counter DOWNLOAD_BYTES = register(new Counter("download.bytes"));
+    static final Counter DOWNLOAD_FAILURES = register(new Counter("download.failures"));
+    static final Histogram DOWNLOAD_LATENCY = register(new Histogram("download.latency"));
+    static final Histogram DECODE_TIME = register(new Histogram("decode.time"));
+    static final Histogram BOARD_BUILD_TIME = register(new Histogram("board.build.time"));
+    static final Histogram FRAME_TIME = register(new Histogram("gui.frame.time"));
+    static final Histogram CHECK_SOLVED_TIME = register(new Histogram("gui.checkSolved.time"));
+    static final Meter MOVES = register(new Meter("moves"));
+
+    static boolean started; // Whether the exporters were started
+
+    private Metrics() {
+    }
+
+    // A named value, or group of values, that can be exported
+    abstract static class Metric {
+        final String name; // Dotted name, used as the prefix of every exported value
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        // Adds the current values to the export, each under name.something
+        abstract void export(Map<String, Number> values);
+    }
+
+    // Something that only goes up -> requests, failures, bytes
+    static final class Counter extends Metric {
+        final LongAdder count = new LongAdder(); // Adders keep threads from fighting over one cache line
+
+        Counter(String name) {
+            super(name);
+        }
+
+        void increment() {
+            if (ENABLED) {
+                count.increment();
+            }
+        }
+
+        void add(long amount) {
+            if (ENABLED) {
+                count.add(amount);
+            }
+        }
+
+        @Override
+        void export(Map<String, Number> values) {
+            values.put(name + ".count", count.sum());
+        }
+    }
+
+    // Durations sorted into power of two nanosecond buckets, enough for percentiles within a factor of two
+    static final class Histogram extends Metric {
+        final AtomicLongArray buckets = new AtomicLongArray(64); // Bucket i counts durations in [2^(i-1), 2^i) ns
+        final LongAdder count = new LongAdder();
+        final LongAdder total = new LongAdder(); // Sum of all durations in nanoseconds
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram(String name) {
+            super(name);
+        }
+
+        // Records the time since a start taken with Metrics.start()
+        void stop(long start) {
+            if (ENABLED) {
+                record(System.nanoTime() - start);
+            }
+        }
+
+        void record(long nanos) {
+            if (!ENABLED) {
+                return;
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        // Upper bound in nanoseconds of the bucket the given fraction of all durations falls in
+        long percentile(double fraction) {
+            long target = (long) Math.ceil(count.sum() * fraction);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= target && seen > 0) {
+                    return i == 0 ? 0 : 1L << Math.min(i, 62);
+                }
+            }
+            return max.get();
+        }
+
+        @Override
+        void export(Map<String, Number> values) {
+            long n = count.sum();
+            values.put(name + ".count", n);
+            values.put(name + ".mean.ms", n == 0 ? 0.0 : total.sum() / 1e6 / n);
+            values.put(name + ".p50.ms", percentile(0.50) / 1e6);
+            values.put(name + ".p90.ms", percentile(0.90) / 1e6);
+            values.put(name + ".p99.ms", percentile(0.99) / 1e6);
+            values.put(name + ".max.ms", max.get() / 1e6);
+        }
+    }
+
+    // Events per second over the last few seconds, one slot per second in a small ring
+    static final class Meter extends Metric {
+        static final int SLOTS = 16; // Seconds kept in the ring
+        static final int WINDOW = 10; // Completed seconds the rate is averaged over
+
+        final LongAdder count = new LongAdder();
+        final AtomicLongArray slots = new AtomicLongArray(SLOTS); // Events counted in a second
+        final AtomicLongArray seconds = new AtomicLongArray(SLOTS); // Second a slot is counting, reset when it comes around again
+
+        Meter(String name) {
+            super(name);
+        }
+
+        void mark() {
+            if (!ENABLED) {
+                return;
+            }
+            count.increment();
+            long second = System.nanoTime() / 1_000_000_000L;
+            int slot = (int) Math.floorMod(second, (long) SLOTS); // nanoTime can be negative
+            long slotSecond = seconds.get(slot);
+            if (slotSecond != second && seconds.compareAndSet(slot, slotSecond, second)) {
+                slots.set(slot, 0);
+            }
+            slots.incrementAndGet(slot);
+        }
+
+        // Average events per second over the last completed seconds
+        double rate() {
+            long now = System.nanoTime() / 1_000_000_000L;
+            long events = 0;
+            for (int slot = 0; slot < SLOTS; slot++) {
+                long age = now - seconds.get(slot);
+                if (age >= 1 && age <= WINDOW) {
+                    events += slots.get(slot);
+                }
+            }
+            return (double) events / WINDOW;
+        }
+
+        @Override
+        void export(Map<String, Number> values) {
+            values.put(name + ".count", count.sum());
+            values.put(name + ".perSecond", rate());
+        }
+    }
+
+    static <T extends Metric> T register(T metric) {
+        REGISTRY.add(metric);
+        return metric;
+    }
+
+    // Start of a timed section, 0 when metrics are off so the clock is not even read
+    static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    // Every exported value by name
+    public static Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Metric metric : REGISTRY) {
+            metric.export(values);
+        }
+        return values;
+    }
+
+    // One "name value" line per exported value
+    public static String text() {
+        StringBuilder text = new StringBuilder();
+        snapshot().forEach((name, value) -> text.append(name).append(' ').append(value).append('\n'));
+        return text.toString();
+    }
+
+    // Registers the JMX bean and starts the text endpoint, does nothing when metrics are off or already started
+    public static synchronized void startExporters() {
+        if (!ENABLED || started) {
+            return;
+        }
+        started = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName("puzzle:type=Metrics"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        if (PORT > 0) {
+            try {
+                ServerSocket server = new ServerSocket(PORT, 16, InetAddress.getLoopbackAddress());
+                Thread thread = new Thread(() -> serve(server), "puzzle-metrics");
+                thread.setDaemon(true); // Never keeps the game from exiting
+                thread.start();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Answers every connection with the text of all metrics, scrapes are rare so one thread is plenty
+    static void serve(ServerSocket server) {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                socket.setSoTimeout(2000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                    // Skips the request line and headers, every path returns the same text
+                }
+                byte[] body = text().getBytes(StandardCharsets.UTF_8);
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain; charset=utf-8\r\nContent-Length: " + body.length
+                        + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.write(body);
+                out.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Exposes every exported value as a read-only JMX attribute, read fresh on every call
+    static final class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        // Every attribute is read-only, so there is none that can be set
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        // Returns the attributes that were set -> none
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            snapshot().forEach((name, value) -> attributes.add(
+                    new MBeanAttributeInfo(name, value.getClass().getName(), name, true, false, false)));
+            return new MBeanInfo(Bean.class.getName(), "Puzzle game metrics", attributes.toArray(new MBeanAttributeInfo[0]),
+                    null, null, null);
+        }
+    }
+}
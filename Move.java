@@ -0,0 +1,90 @@
+public class Move {
+    // The kinds of moves a player can make
+    public enum Type {
+        SWAP, // Swaps the pieces at (row1, col1) and (row2, col2)
+        ROTATE_LEFT, // Rotates the piece at (row1, col1) counterclockwise
+        ROTATE_RIGHT, // Rotates the piece at (row1, col1) clockwise
+        FLIP // Flips the piece at (row1, col1) horizontally
+    }
+
+    final Type type; // What the move does
+    final int row1; // Row of the piece that is moved
+    final int col1; // Column of the piece that is moved
+    final int row2; // Row of the second piece of a swap, -1 otherwise
+    final int col2; // Column of the second piece of a swap, -1 otherwise
+
+    // The constructor
+    Move(Type type, int row1, int col1, int row2, int col2) {
+        this.type = type;
+        this.row1 = row1;
+        this.col1 = col1;
+        this.row2 = row2;
+        this.col2 = col2;
+    }
+
+    // Swaps two pieces
+    public static Move swap(int row1, int col1, int row2, int col2) {
+        return new Move(Type.SWAP, row1, col1, row2, col2);
+    }
+
+    // Rotates one piece to the left
+    public static Move rotateLeft(int row, int col) {
+        return new Move(Type.ROTATE_LEFT, row, col, -1, -1);
+    }
+
+    // Rotates one piece to the right
+    public static Move rotateRight(int row, int col) {
+        return new Move(Type.ROTATE_RIGHT, row, col, -1, -1);
+    }
+
+    // Flips one piece
+    public static Move flip(int row, int col) {
+        return new Move(Type.FLIP, row, col, -1, -1);
+    }
+
+    // The move that takes this one back -> a swap undoes itself, a rotation the other way undoes a rotation, a flip undoes a flip
+    public Move inverse() {
+        switch (type) {
+            case ROTATE_LEFT:
+                return rotateRight(row1, col1);
+            case ROTATE_RIGHT:
+                return rotateLeft(row1, col1);
+            default:
+                return this;
+        }
+    }
+
+    // Checks that every cell the move touches is on a board of the given size
+    public boolean fits(int rows, int cols) {
+        boolean first = row1 >= 0 && row1 < rows && col1 >= 0 && col1 < cols;
+        if (type != Type.SWAP) {
+            return first;
+        }
+        return first && row2 >= 0 && row2 < rows && col2 >= 0 && col2 < cols;
+    }
+
+    // Applies the move to the board, going through the board so its solved count stays up to date
+    public void applyTo(BoardState board) {
+        switch (type) {
+            case SWAP:
+                board.swapPieces(row1, col1, row2, col2);
+                break;
+            case ROTATE_LEFT:
+                board.rotatePieceLeft(row1, col1);
+                break;
+            case ROTATE_RIGHT:
+                board.rotatePieceRight(row1, col1);
+                break;
+            case FLIP:
+                board.flipPiece(row1, col1);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.SWAP
+                ? type + "(" + row1 + "," + col1 + " <-> " + row2 + "," + col2 + ")"
+                : type + "(" + row1 + "," + col1 + ")";
+    }
+}
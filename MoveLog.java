@@ -0,0 +1,265 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class MoveLog {
+    // Append-only history of a session, one long per entry -> op in the top 4 bits, then two cell indexes of 30 bits each
+    // A board is rebuilt from its seed plus this log, so no images are ever stored
+    static final int MAGIC = 0x505A4D4C; // "PZML" at the start of every log file
+    static final int VERSION = 1; // Layout of the file, bumped when it changes
+    static final int HEADER_BYTES = 32; // magic, version, rows, cols (int each), seed (long), difficulty, count (int each)
+    static final int COUNT_OFFSET = 28; // Where the # of entries sits in the header, rewritten after every entry
+    static final int RECORD_BYTES = 8; // One long per entry
+    static final int INITIAL_CAPACITY = 1024; // Entries room is made for at first, doubled whenever it runs out
+    static final int UNDO = 4; // Op of an undo entry, the move ops are the Move.Type ordinals 0-3
+    static final int REDO = 5; // Op of a redo entry
+    static final long CELL_MASK = (1L << 30) - 1;
+
+    final int rows; // # of rows of the board
+    final int cols; // # of columns of the board
+    final long seed; // Seed the board was shuffled with before the first entry
+    final ShuffleEngine.Difficulty difficulty; // Profile the board was shuffled with, null when it was not shuffled from the seed
+    long[] journal = new long[INITIAL_CAPACITY]; // Every entry in order, undos and redos included
+    int count; // # of entries in the journal
+    long[] history = new long[INITIAL_CAPACITY]; // Moves that are applied, followed by the ones that can be redone
+    int cursor; // # of moves that are applied, undo steps back from here
+    int top; // # of moves in the history, redo steps forward until here
+    FileChannel channel; // File the journal is streamed into, null for a log kept in memory only
+    MappedByteBuffer mapped; // Mapping of the whole file, entries are written straight into it
+
+    // The constructor for a log kept in memory only
+    MoveLog(int rows, int cols, long seed, ShuffleEngine.Difficulty difficulty) {
+        this.rows = rows;
+        this.cols = cols;
+        this.seed = seed;
+        this.difficulty = difficulty;
+    }
+
+    // The constructor for a log of a board that was just shuffled
+    MoveLog(BoardState board) {
+        this(board.getRows(), board.getCols(), board.getSeed(), board.getDifficulty());
+    }
+
+    // Starts a new log file for a board, replacing any file that was there
+    public static MoveLog create(Path file, BoardState board) throws IOException {
+        MoveLog log = new MoveLog(board);
+        log.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log.map(INITIAL_CAPACITY);
+        log.mapped.putInt(0, MAGIC);
+        log.mapped.putInt(4, VERSION);
+        log.mapped.putInt(8, log.rows);
+        log.mapped.putInt(12, log.cols);
+        log.mapped.putLong(16, log.seed);
+        log.mapped.putInt(24, log.difficulty == null ? -1 : log.difficulty.ordinal());
+        log.mapped.putInt(COUNT_OFFSET, 0);
+        return log;
+    }
+
+    // Opens an existing log file, new entries are appended to it
+    // A file that is cut short or does not hold a valid log fails with an IOException, before anything is replayed from it
+    public static MoveLog load(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Move log is cut short: " + file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a move log: " + file);
+            }
+            int rows = header.getInt(8), cols = header.getInt(12);
+            int difficulty = header.getInt(24);
+            int entries = header.getInt(COUNT_OFFSET);
+            if (rows <= 0 || cols <= 0 || (long) rows * cols > CELL_MASK || difficulty >= ShuffleEngine.Difficulty.values().length
+                    || entries < 0) {
+                throw new IOException("Move log has an invalid header: " + file);
+            }
+            // Checked before mapping, a read-write mapping past the end would grow the file with zeros that decode as moves
+            if (size < HEADER_BYTES + (long) entries * RECORD_BYTES) {
+                throw new IOException("Move log is " + size + " bytes, its " + entries + " entries need "
+                        + (HEADER_BYTES + (long) entries * RECORD_BYTES) + ": " + file);
+            }
+            MoveLog log = new MoveLog(rows, cols, header.getLong(16),
+                    difficulty < 0 ? null : ShuffleEngine.Difficulty.values()[difficulty]);
+            log.channel = channel;
+            log.map(Math.max(INITIAL_CAPACITY, entries));
+            for (int i = 0; i < entries; i++) {
+                long record = log.mapped.getLong(HEADER_BYTES + i * RECORD_BYTES);
+                if (!log.isValid(record)) {
+                    throw new IOException("Move log has an invalid entry at " + i + ": " + file);
+                }
+                log.remember(record);
+                log.advance(record);
+            }
+            return log;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Records a move that was just applied, anything that could be redone is dropped
+    public void record(Move move) {
+        long record = encode(move);
+        append(record);
+        advance(record);
+    }
+
+    // Steps one move back, returns the move that undoes it or null when there is nothing to undo
+    public Move undo() {
+        if (cursor == 0) {
+            return null;
+        }
+        long record = (long) UNDO << 60;
+        append(record);
+        return advance(record);
+    }
+
+    // Steps one undone move forward again, returns the move to apply or null when there is nothing to redo
+    public Move redo() {
+        if (cursor == top) {
+            return null;
+        }
+        long record = (long) REDO << 60;
+        append(record);
+        return advance(record);
+    }
+
+    public boolean canUndo() {
+        return cursor > 0;
+    }
+
+    public boolean canRedo() {
+        return cursor < top;
+    }
+
+    // # of entries, undos and redos included
+    public int size() {
+        return count;
+    }
+
+    // Rebuilds the board this log was recorded on -> shuffles it from the seed, then plays every entry again
+    // A board that was not shuffled from a seed (restored from a snapshot) has none to start from
+    public void replay(BoardState board) {
+        if (!isReplayable()) {
+            throw new IllegalStateException("The board of this log was not shuffled from a seed");
+        }
+        board.shuffle(seed, difficulty);
+        MoveLog state = new MoveLog(rows, cols, seed, difficulty);
+        for (int i = 0; i < count; i++) {
+            Move move = state.advance(journal[i]);
+            if (move != null) {
+                move.applyTo(board);
+            }
+        }
+    }
+
+    // Whether the board can be rebuilt from the seed, false when it was laid out some other way before the first entry
+    public boolean isReplayable() {
+        return difficulty != null;
+    }
+
+    // Moves the undo/redo state by one entry and returns the move it applies to the board, null when it applies none
+    Move advance(long record) {
+        int op = (int) (record >>> 60);
+        if (op == UNDO) {
+            return cursor == 0 ? null : decode(history[--cursor]).inverse();
+        }
+        if (op == REDO) {
+            return cursor == top ? null : decode(history[cursor++]);
+        }
+        if (cursor == history.length) {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+        history[cursor++] = record;
+        top = cursor;
+        return decode(record);
+    }
+
+    // Adds an entry to the journal and streams it into the file when there is one
+    void append(long record) {
+        remember(record);
+        if (mapped == null) {
+            return;
+        }
+        try {
+            if (HEADER_BYTES + (long) count * RECORD_BYTES > mapped.capacity()) {
+                map(count * 2);
+            }
+            // The entry is written before the count, so a crash never leaves the count pointing at a half written entry
+            mapped.putLong(HEADER_BYTES + (count - 1) * RECORD_BYTES, record);
+            mapped.putInt(COUNT_OFFSET, count);
+        } catch (IOException e) {
+            e.printStackTrace();
+            mapped = null; // The log keeps working in memory
+        }
+    }
+
+    // Adds an entry to the journal in memory
+    void remember(long record) {
+        if (count == journal.length) {
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        }
+        journal[count++] = record;
+    }
+
+    // Maps the file with room for the given # of entries, growing the file when needed
+    void map(int capacity) throws IOException {
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * RECORD_BYTES);
+    }
+
+    // Writes the mapped entries out to the disk
+    public void flush() {
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    // Flushes and closes the file, the log stays usable in memory
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        channel = null;
+        mapped = null;
+    }
+
+    // Packs a move into an entry, cells are stored as row * cols + col
+    long encode(Move move) {
+        long first = move.row1 * cols + move.col1;
+        long second = move.type == Move.Type.SWAP ? move.row2 * cols + move.col2 : 0;
+        return (long) move.type.ordinal() << 60 | first << 30 | second;
+    }
+
+    // Whether an entry read from a file is one this log could have written -> a known op, cells on the board
+    boolean isValid(long record) {
+        int op = (int) (record >>> 60);
+        long first = record >>> 30 & CELL_MASK;
+        long second = record & CELL_MASK;
+        if (op == UNDO || op == REDO) {
+            return first == 0 && second == 0;
+        }
+        return op < Move.Type.values().length && first < (long) rows * cols && second < (long) rows * cols;
+    }
+
+    // Unpacks a move entry
+    Move decode(long record) {
+        Move.Type type = Move.Type.values()[(int) (record >>> 60)];
+        int first = (int) (record >>> 30 & CELL_MASK);
+        int second = (int) (record & CELL_MASK);
+        return type == Move.Type.SWAP
+                ? new Move(type, first / cols, first % cols, second / cols, second % cols)
+                : new Move(type, first / cols, first % cols, -1, -1);
+    }
+}
@@ -1,63 +1,260 @@
+import org.json.JSONArray;
 import org.json.JSONObject;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import org.json.JSONException;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class OpenAI {
     // Get URL and the KEY variables from the environment
     static String OPENAI_API_URL = System.getenv("OPENAI_API_URL");
     static String OPENAI_API_KEY = System.getenv("OPENAI_API_KEY");
+    static String OPENAI_IMAGE_MODEL = System.getenv().getOrDefault("OPENAI_IMAGE_MODEL", "dall-e-3");
 
-    // Fetches image URL from OpenAI's API based on the user's prompt
+    // How long connecting may take, and how long one attempt may take from sending the request to the last byte of the answer
+    static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(Integer.getInteger("puzzle.openai.connectTimeoutSeconds", 10));
+    static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(Integer.getInteger("puzzle.openai.timeoutSeconds", 120));
+
+    // Retries of a failed attempt, waiting a random time up to BACKOFF_BASE * 2^retry (capped) unless the API says how long
+    static final int MAX_RETRIES = Integer.getInteger("puzzle.openai.retries", 4);
+    static final long BACKOFF_BASE_MILLIS = 500;
+    static final long BACKOFF_CAP_MILLIS = 30_000;
+    // Longest Retry-After that is honored, a longer one would hold back every call for that long
+    static final Duration MAX_RETRY_AFTER = Duration.ofSeconds(Integer.getInteger("puzzle.openai.maxRetryAfterSeconds", 60));
+
+    // Shared HTTP client, it pools connections so every request does not open a new one
+    static final HttpClient CLIENT = HttpClient.newBuilder()
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    // Every request to the API goes through this, so a burst of players or prefetches never floods it
+    static final RequestLimiter LIMITER = new RequestLimiter(
+            Integer.getInteger("puzzle.openai.requestsPerMinute", 50) / 60.0,
+            Integer.getInteger("puzzle.openai.burst", 5),
+            Integer.getInteger("puzzle.openai.maxInFlight", 4),
+            Integer.getInteger("puzzle.openai.maxQueued", 32),
+            PuzzleLoader.WORKERS);
+
+    // Fetches image URL from OpenAI's API based on the user's prompt, blocking until it is there
+    // Throws an OpenAIException telling why when no URL could be fetched
     public static String fetchImage(String prompt) {
         try {
-            if (OPENAI_API_URL == null) {
-                throw new IllegalStateException("API URL is not set.");
-            }
-            if (OPENAI_API_KEY == null) {
-                throw new IllegalStateException("API KEY is not set.");
-            }
-            // Sets up the HTTP connection to the OpenAI API
-            URL url = new URL(OPENAI_API_URL);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setRequestProperty("Content-Type", "application/json");
-            connection.setRequestProperty("Authorization", "Bearer " + OPENAI_API_KEY);
-            connection.setDoOutput(true);
-
-            // JSON payload with the image generation info
-            JSONObject payload = new JSONObject();
-            payload.put("model", "dall-e-3");
-            payload.put("prompt", prompt);
-            payload.put("n", 1);
-            payload.put("size", "1024x1024");
-
-            // Sends the JSON payload
-            try (OutputStream os = connection.getOutputStream()) {
-                byte[] input = payload.toString().getBytes("utf-8"); // String -> bytes (for communication)
-                os.write(input, 0, input.length);
-            }
-
-            // Reads the response from the server
-            StringBuilder response = new StringBuilder();
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), "utf-8"))) {
-                String responseLine;
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
-                }
+            return fetchImageAsync(prompt).join();
+        } catch (CompletionException e) {
+            throw failure(e.getCause());
+        }
+    }
+
+    // Fetches image URL from OpenAI's API without blocking, using the API URL and KEY from the environment
+    public static CompletableFuture<String> fetchImageAsync(String prompt) {
+        return fetchImageAsync(CLIENT, OPENAI_API_URL, OPENAI_API_KEY, prompt);
+    }
+
+    // Fetches image URL from the given endpoint without blocking, the endpoint can be a local stub server
+    public static CompletableFuture<String> fetchImageAsync(HttpClient client, String apiUrl, String apiKey, String prompt) {
+        CompletableFuture<List<String>> urls = fetchImagesAsync(client, apiUrl, apiKey, prompt, 1);
+        CompletableFuture<String> url = urls.thenApply(list -> list.get(0));
+        url.whenComplete((done, error) -> urls.cancel(true)); // Cancelling the URL stops the request and its retries
+        return url;
+    }
+
+    // Fetches several image URLs for the same prompt without blocking, asking for all of them in one call when the model allows it
+    public static CompletableFuture<List<String>> fetchImagesAsync(HttpClient client, String apiUrl, String apiKey, String prompt, int n) {
+        // dall-e-3 only accepts n = 1, so a batch turns into that many single requests sent at the same time
+        // The batch keeps every image that arrived and only fails when none did, cancelling it cancels every single request
+        if (n > 1 && OPENAI_IMAGE_MODEL.equals("dall-e-3")) {
+            List<CompletableFuture<List<String>>> singles = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                singles.add(requestImages(client, apiUrl, apiKey, prompt, 1));
             }
+            CompletableFuture<List<String>> batch = CompletableFuture.allOf(singles.stream()
+                    .map(single -> single.handle((urls, error) -> urls))
+                    .toArray(CompletableFuture<?>[]::new)).thenApply(done -> {
+                        List<String> urls = new ArrayList<>();
+                        Throwable firstError = null;
+                        for (CompletableFuture<List<String>> single : singles) {
+                            try {
+                                urls.addAll(single.join());
+                            } catch (CompletionException | CancellationException e) {
+                                firstError = firstError != null ? firstError : e;
+                            }
+                        }
+                        if (urls.isEmpty()) {
+                            throw failure(firstError);
+                        }
+                        return urls;
+                    });
+            batch.whenComplete((urls, error) -> singles.forEach(single -> single.cancel(true))); // No-op for finished ones
+            return batch;
+        }
+        return requestImages(client, apiUrl, apiKey, prompt, n);
+    }
+
+    // Sends one image generation request asking for n images and returns their URLs, retrying the failures worth retrying
+    // Fails with an OpenAIException once a failure is final or the retries run out
+    static CompletableFuture<List<String>> requestImages(HttpClient client, String apiUrl, String apiKey, String prompt, int n) {
+        if (apiUrl == null) {
+            return CompletableFuture.failedFuture(new OpenAIException(OpenAIException.Kind.CONFIGURATION, "API URL is not set.", null));
+        }
+        if (apiKey == null) {
+            return CompletableFuture.failedFuture(new OpenAIException(OpenAIException.Kind.CONFIGURATION, "API KEY is not set.", null));
+        }
 
-            // Parses the JSON response to get the URL of the generated image
-            JSONObject jsonResponse = new JSONObject(response.toString());
-            String imageUrl = jsonResponse.getJSONArray("data").getJSONObject(0).getString("url");
+        // JSON payload with the image generation info
+        JSONObject payload = new JSONObject();
+        payload.put("model", OPENAI_IMAGE_MODEL);
+        payload.put("prompt", prompt);
+        payload.put("n", n);
+        payload.put("size", "1024x1024");
 
-            return imageUrl;
+        // Sets up the HTTP request to the OpenAI API
+        HttpRequest request = HttpRequest.newBuilder(URI.create(apiUrl))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString(), StandardCharsets.UTF_8))
+                .build();
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "Could not find the generate image URL :(";
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        attempt(client, request, 0, result);
+        return result;
+    }
+
+    // Sends one attempt through the limiter, and schedules the next one when it fails in a way worth retrying
+    static void attempt(HttpClient client, HttpRequest request, int retry, CompletableFuture<List<String>> result) {
+        CompletableFuture<List<String>> sent = LIMITER.submit(() -> send(client, request));
+        result.whenComplete((urls, error) -> sent.cancel(true)); // Cancelling the result stops the attempt in flight
+        sent.whenComplete((urls, error) -> {
+            if (result.isDone()) {
+                return; // Cancelled by the caller
+            }
+            if (error == null) {
+                result.complete(urls);
+                return;
+            }
+            OpenAIException failure = failure(error);
+            if (!failure.isRetryable() || retry >= MAX_RETRIES) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            long delay;
+            if (failure.retryAfter != null) {
+                Duration wait = failure.retryAfter.compareTo(MAX_RETRY_AFTER) > 0 ? MAX_RETRY_AFTER : failure.retryAfter;
+                delay = wait.toMillis();
+                LIMITER.pause(wait); // The API asked every caller to back off, not just this one
+            } else {
+                // Full jitter, so callers that failed together do not all come back at the same moment
+                long ceiling = Math.min(BACKOFF_CAP_MILLIS, BACKOFF_BASE_MILLIS << Math.min(retry, 20));
+                delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+            }
+            Metrics.API_RETRIES.increment();
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, PuzzleLoader.WORKERS)
+                    .execute(() -> {
+                        if (!result.isDone()) {
+                            attempt(client, request, retry + 1, result);
+                        }
+                    });
+        });
+    }
+
+    // Sends the request once and parses the URLs of the generated images out of the response
+    static CompletableFuture<List<String>> send(HttpClient client, HttpRequest request) {
+        Metrics.API_REQUESTS.increment();
+        long start = Metrics.start();
+        CompletableFuture<HttpResponse<byte[]>> exchange = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<List<String>> result = exchange.thenApply(response -> {
+            Metrics.API_LATENCY.stop(start);
+            Metrics.API_BYTES.add(response.body().length);
+            String body = new String(response.body(), StandardCharsets.UTF_8);
+            int status = response.statusCode();
+            if (status / 100 != 2) {
+                Duration retryAfter = retryAfter(response.headers().firstValue("Retry-After").orElse(null));
+                OpenAIException.Kind kind = status == 429 ? OpenAIException.Kind.RATE_LIMITED
+                        : status == 408 ? OpenAIException.Kind.TIMEOUT
+                        : status / 100 == 5 ? OpenAIException.Kind.SERVER
+                        : OpenAIException.Kind.REJECTED;
+                throw new OpenAIException(kind, status, retryAfter,
+                        "Image generation failed with HTTP " + status + ": " + body, null);
+            }
+            try {
+                JSONArray data = new JSONObject(body).getJSONArray("data");
+                List<String> urls = new ArrayList<>();
+                for (int i = 0; i < data.length(); i++) {
+                    urls.add(data.getJSONObject(i).getString("url"));
+                }
+                if (urls.isEmpty()) {
+                    throw new OpenAIException(OpenAIException.Kind.MALFORMED, status, null, "Image generation returned no images", null);
+                }
+                return urls;
+            } catch (JSONException e) {
+                throw new OpenAIException(OpenAIException.Kind.MALFORMED, status, null,
+                        "Image generation returned an unexpected response", e);
+            }
+        });
+        // The request timeout alone stops at the headers, so the whole attempt is bounded as well. Running out of time or being
+        // cancelled aborts the exchange, completing the future downstream of it alone would leave the request running
+        result.orTimeout(REQUEST_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).whenComplete((urls, error) -> {
+            if (error != null) {
+                exchange.cancel(true); // No-op once the response arrived
+                if (!(error instanceof CancellationException)) {
+                    Metrics.API_FAILURES.increment();
+                }
+            }
+        });
+        return result;
+    }
+
+    // Turns whatever an attempt failed with into an OpenAIException telling why
+    static OpenAIException failure(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof OpenAIException) {
+            return (OpenAIException) error;
+        }
+        if (error instanceof HttpTimeoutException || error instanceof TimeoutException) {
+            return new OpenAIException(OpenAIException.Kind.TIMEOUT, "Image generation timed out", error);
+        }
+        if (error instanceof IOException) {
+            return new OpenAIException(OpenAIException.Kind.NETWORK, "Could not reach the image generation API: " + error.getMessage(), error);
+        }
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error; // Cancelled by the caller, not a failure of the API
+        }
+        return new OpenAIException(OpenAIException.Kind.MALFORMED, "Image generation failed: " + error, error);
+    }
+
+    // Parses a Retry-After header, given either as seconds or as an HTTP date, null when it is missing or unreadable
+    static Duration retryAfter(String header) {
+        if (header == null) {
+            return null;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(header.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Duration wait = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                return wait.isNegative() ? Duration.ZERO : wait;
+            } catch (DateTimeParseException ignored) {
+                return null;
+            }
         }
     }
 }
@@ -0,0 +1,56 @@
+import java.time.Duration;
+
+public class OpenAIException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    // Why an API call failed, so callers can tell a call worth retrying from one that never will succeed
+    enum Kind {
+        CONFIGURATION(false), // The API URL or key is missing
+        RATE_LIMITED(true), // HTTP 429, the API asked for fewer requests
+        SERVER(true), // HTTP 5xx, the API failed on its side
+        TIMEOUT(true), // Connecting or reading took longer than allowed
+        NETWORK(true), // The connection could not be made or broke
+        REJECTED(false), // Any other HTTP 4xx -> bad key, bad prompt, content policy
+        MALFORMED(false), // The response was not the JSON that was expected
+        OVERLOADED(false); // Too many calls were already waiting, the call was never sent
+
+        final boolean retryable; // Whether the same call can succeed when it is sent again
+
+        Kind(boolean retryable) {
+            this.retryable = retryable;
+        }
+    }
+
+    final Kind kind; // Why the call failed
+    final int status; // HTTP status of the response, 0 when there was none
+    final Duration retryAfter; // How long the API asked to wait before the next call, null when it did not say
+
+    // The constructor
+    OpenAIException(Kind kind, int status, Duration retryAfter, String message, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+        this.status = status;
+        this.retryAfter = retryAfter;
+    }
+
+    // The constructor for a failure without a response
+    OpenAIException(Kind kind, String message, Throwable cause) {
+        this(kind, 0, null, message, cause);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public boolean isRetryable() {
+        return kind.retryable;
+    }
+}
@@ -0,0 +1,43 @@
+public final class Orientation {
+    // An orientation packed into 3 bits -> bits 0-1 are clockwise quarter turns, bit 2 is set when flipped
+    static final int FLIPPED = 4;
+    static final int COUNT = 8; // 4 rotations x flipped
+
+    private Orientation() {
+    }
+
+    // Packs a rotation in degrees and a flip into an orientation
+    public static int of(int rotation, boolean flipped) {
+        return (rotation / 90 & 3) | (flipped ? FLIPPED : 0);
+    }
+
+    // Rotation of an orientation in clockwise quarter turns
+    public static int quarterTurns(int orientation) {
+        return orientation & 3;
+    }
+
+    // Rotation of an orientation in degrees
+    public static int degrees(int orientation) {
+        return (orientation & 3) * 90;
+    }
+
+    // Whether an orientation is flipped
+    public static boolean isFlipped(int orientation) {
+        return (orientation & FLIPPED) != 0;
+    }
+
+    // Orientation after rotating counterclockwise 90 degrees
+    public static int rotateLeft(int orientation) {
+        return ((orientation + 3) & 3) | (orientation & FLIPPED);
+    }
+
+    // Orientation after rotating clockwise 90 degrees
+    public static int rotateRight(int orientation) {
+        return ((orientation + 1) & 3) | (orientation & FLIPPED);
+    }
+
+    // Orientation after flipping horizontally, the rotation stays the same
+    public static int flip(int orientation) {
+        return orientation ^ FLIPPED;
+    }
+}
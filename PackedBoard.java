@@ -0,0 +1,134 @@
+public class PackedBoard implements BoardState {
+    // A board without pixels for headless sessions and replaying move logs, the pieces are only told apart by their ids
+    // A board with an image is a PuzzleBoard, which also counts a look-alike piece as correct -> a PackedBoard cannot see
+    // that two pieces look the same, so it is only solved when every piece is its own and untransformed
+    int rows; // # of rows
+    int cols; // # of columns
+    int[] pieces; // Cell -> piece in that cell, a piece is identified by the cell it belongs in (row * cols + col)
+    byte[] orientations; // Cell -> orientation of the piece in that cell, see Orientation
+    int correctCount; // # of cells holding their own piece, not rotated and not flipped
+    long seed; // Seed the pieces were shuffled with, replaying it gives the same board
+    ShuffleEngine.Difficulty difficulty; // Profile the pieces were shuffled with
+
+    // The constructor
+    PackedBoard(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.pieces = new int[rows * cols];
+        this.orientations = new byte[rows * cols];
+        for (int i = 0; i < pieces.length; i++) {
+            pieces[i] = i;
+        }
+        shuffleAndTransformPieces();
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    // The piece in a cell, identified by the cell it belongs in
+    public int getPieceAt(int row, int col) {
+        return pieces[row * cols + col];
+    }
+
+    // The orientation of the piece in a cell
+    public int getOrientationAt(int row, int col) {
+        return orientations[row * cols + col];
+    }
+
+    @Override
+    public void swapPieces(int row1, int col1, int row2, int col2) {
+        int index1 = row1 * cols + col1;
+        int index2 = row2 * cols + col2;
+        if (index1 == index2) {
+            return; // Swapping a piece with itself changes nothing
+        }
+        correctCount -= countCorrect(index1) + countCorrect(index2);
+        int piece = pieces[index1];
+        pieces[index1] = pieces[index2];
+        pieces[index2] = piece;
+        byte orientation = orientations[index1];
+        orientations[index1] = orientations[index2];
+        orientations[index2] = orientation;
+        correctCount += countCorrect(index1) + countCorrect(index2);
+    }
+
+    @Override
+    public void rotatePieceLeft(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        orientations[index] = (byte) Orientation.rotateLeft(orientations[index]);
+        correctCount += countCorrect(index);
+    }
+
+    @Override
+    public void rotatePieceRight(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        orientations[index] = (byte) Orientation.rotateRight(orientations[index]);
+        correctCount += countCorrect(index);
+    }
+
+    @Override
+    public void flipPiece(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        orientations[index] = (byte) Orientation.flip(orientations[index]);
+        correctCount += countCorrect(index);
+    }
+
+    @Override
+    public boolean isSolved() {
+        return correctCount == pieces.length;
+    }
+
+    // Returns 1 if the cell holds its own piece in the original orientation, otherwise 0
+    int countCorrect(int index) {
+        return pieces[index] == index && orientations[index] == 0 ? 1 : 0;
+    }
+
+    // Recounts every cell from scratch, only needed after the whole board is rearranged
+    void recountCorrect() {
+        correctCount = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            correctCount += countCorrect(i);
+        }
+    }
+
+    // Shuffles the pieces from a new seed, the same way PuzzleBoard does
+    @Override
+    public void shuffleAndTransformPieces() {
+        shuffle(ShuffleEngine.nextSeed(), ShuffleEngine.DEFAULT_DIFFICULTY);
+    }
+
+    @Override
+    public void shuffle(long seed, ShuffleEngine.Difficulty difficulty) {
+        applyLayout(ShuffleEngine.layout(pieces.length, seed, difficulty));
+    }
+
+    // The layout already has this board's shape, so it is copied as is
+    @Override
+    public void applyLayout(ShuffleEngine.Layout layout) {
+        System.arraycopy(layout.permutation, 0, pieces, 0, pieces.length);
+        System.arraycopy(layout.orientations, 0, orientations, 0, orientations.length);
+        this.seed = layout.seed;
+        this.difficulty = layout.difficulty;
+        recountCorrect(); // The whole board changed, so the solved count is rebuilt once here
+    }
+
+    @Override
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public ShuffleEngine.Difficulty getDifficulty() {
+        return difficulty;
+    }
+}
@@ -0,0 +1,327 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+public class PromptCache {
+    // Shared cache used by the game, next to the shared image cache
+    static final PromptCache SHARED = new PromptCache(ImageLoader.SHARED, ImageLoader.defaultCacheDir().resolve("prompts.idx"),
+            Duration.ofHours(Long.getLong("puzzle.promptCache.ttlHours", 24 * 7)),
+            Long.getLong("puzzle.promptCache.maxBytes", 512L * 1024 * 1024));
+
+    // One cached prompt
+    static final class Entry {
+        final String prompt; // Prompt the image was generated for
+        final String hash; // Content hash of the image bytes in the image cache
+        final String url; // URL the image was downloaded from, only usable for a short time
+        final long createdAt; // When the image was generated, in epoch milliseconds
+        final long size; // Size of the image bytes
+
+        Entry(String prompt, String hash, String url, long createdAt, long size) {
+            this.prompt = prompt;
+            this.hash = hash;
+            this.url = url;
+            this.createdAt = createdAt;
+            this.size = size;
+        }
+    }
+
+    // A generation that is still running, shared by every caller that asked for the same prompt
+    static final class InFlight {
+        final CompletableFuture<BufferedImage> future; // Completes with the generated image
+        final AtomicInteger waiters = new AtomicInteger(); // Callers that have not cancelled yet
+
+        InFlight(CompletableFuture<BufferedImage> future) {
+            this.future = future;
+        }
+    }
+
+    ImageLoader images; // Holds the image bytes, the cache only keeps track of which prompt maps to which bytes
+    Path indexFile; // Prompt index on disk
+    Duration ttl; // How long a cached image is served before the prompt is generated again
+    long maxBytes; // Upper bound on the bytes of all cached images together
+    long totalBytes; // Bytes of all cached images together, an image several prompts share is counted once
+    Map<String, Integer> references = new HashMap<>(); // Content hash -> # of entries pointing at it
+    LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // Prompt -> entry, least recently used first
+    Map<String, InFlight> inFlight = new ConcurrentHashMap<>(); // Prompt -> generation that is still running
+
+    AtomicLong hits = new AtomicLong(); // Served from the cache
+    AtomicLong misses = new AtomicLong(); // Had to generate the image
+    AtomicLong coalesced = new AtomicLong(); // Joined a generation that another caller already started
+    AtomicLong staleHits = new AtomicLong(); // Generation failed, an expired entry was served instead
+
+    // The constructor
+    PromptCache(ImageLoader images, Path indexFile, Duration ttl, long maxBytes) {
+        this.images = images;
+        this.indexFile = indexFile;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        readIndex();
+    }
+
+    // Returns the image for the prompt, from the cache when it is fresh, otherwise generated by the given function
+    // The function turns a prompt into an image URL, concurrent calls for the same prompt share one generation
+    public CompletableFuture<BufferedImage> get(String prompt, Function<String, CompletableFuture<String>> generator,
+                                                PuzzleLoader.ProgressListener listener) {
+        String key = prompt.trim();
+        Entry entry = lookup(key);
+        if (entry == null || isExpired(entry)) {
+            return join(key, generator, listener);
+        }
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        PuzzleLoader.WORKERS.execute(() -> {
+            BufferedImage image = images.image(entry.hash);
+            if (image != null) {
+                hits.incrementAndGet();
+                result.complete(image);
+                return;
+            }
+            if (result.isDone()) {
+                return; // Cancelled while the cached image was being read
+            }
+            // The bytes are there but cannot be read, so it is a miss and the prompt is generated again
+            CompletableFuture<BufferedImage> generated = join(key, generator, listener);
+            result.whenComplete((done, error) -> {
+                if (result.isCancelled()) {
+                    generated.cancel(true);
+                }
+            });
+            generated.whenComplete((done, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(done);
+                }
+            });
+        });
+        return result;
+    }
+
+    // Generates the image for a prompt that missed the cache, sharing one generation between everyone who asks meanwhile
+    CompletableFuture<BufferedImage> join(String key, Function<String, CompletableFuture<String>> generator,
+                                          PuzzleLoader.ProgressListener listener) {
+        // Either joins the generation that is already running or starts a new one, joining happens inside the map's lock
+        // so it can never slip in between the last waiter leaving and the generation being cancelled
+        boolean[] started = new boolean[1];
+        InFlight shared = inFlight.compute(key, (k, current) -> {
+            if (current == null || current.future.isCancelled()) {
+                started[0] = true;
+                current = new InFlight(generate(k, generator, listener));
+            }
+            current.waiters.incrementAndGet();
+            return current;
+        });
+        if (started[0]) {
+            misses.incrementAndGet();
+            shared.future.whenComplete((image, error) -> inFlight.remove(key, shared));
+        } else {
+            coalesced.incrementAndGet();
+        }
+
+        // Every caller gets its own future, the shared generation is only cancelled once nobody waits for it
+        CompletableFuture<BufferedImage> result = shared.future.thenApply(image -> image);
+        result.whenComplete((image, error) -> {
+            if (result.isCancelled()) {
+                leave(key, shared);
+            }
+        });
+        return result;
+    }
+
+    // Drops a caller that cancelled, and cancels the generation when it was the last one waiting for it
+    void leave(String key, InFlight shared) {
+        boolean[] last = new boolean[1];
+        inFlight.compute(key, (k, current) -> {
+            if (shared.waiters.decrementAndGet() > 0) {
+                return current;
+            }
+            last[0] = true;
+            return current == shared ? null : current; // The next caller starts a fresh generation
+        });
+        if (last[0]) {
+            shared.future.cancel(true); // Outside the map's lock, cancelling runs callbacks that touch the map
+        }
+    }
+
+    // Generates and downloads the image for the prompt, falling back to an expired entry when that fails
+    CompletableFuture<BufferedImage> generate(String prompt, Function<String, CompletableFuture<String>> generator,
+                                              PuzzleLoader.ProgressListener listener) {
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        AtomicLong generatedAt = new AtomicLong();
+        CompletableFuture<String> url = generator.apply(prompt);
+        CompletableFuture<BufferedImage> image = url.thenCompose(imageUrl -> {
+            generatedAt.set(System.currentTimeMillis());
+            listener.progress("Downloading image", 0);
+            return images.download(imageUrl, listener, ImageLoader.urlKey(imageUrl));
+        }).thenApplyAsync(hash -> {
+            listener.progress("Decoding image", -1);
+            BufferedImage decoded = images.image(hash);
+            if (decoded == null) {
+                throw new IllegalStateException("Downloaded image could not be decoded");
+            }
+            record(new Entry(prompt, hash, url.join(), generatedAt.get(), images.size(hash)));
+            return decoded;
+        }, PuzzleLoader.WORKERS);
+
+        result.whenComplete((done, error) -> {
+            if (result.isCancelled()) {
+                url.cancel(true);
+                image.cancel(true);
+            }
+        });
+        image.whenComplete((done, error) -> {
+            if (error == null) {
+                result.complete(done);
+                return;
+            }
+            // Offline or the API failed, an expired image is better than no puzzle
+            Entry stale = lookup(prompt);
+            BufferedImage staleImage = stale != null && !result.isDone() ? images.image(stale.hash) : null;
+            if (staleImage != null) {
+                staleHits.incrementAndGet();
+                result.complete(staleImage);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    // Whether an entry is older than the TTL
+    boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.createdAt > ttl.toMillis();
+    }
+
+    // Looks up a prompt and marks it as recently used, ignoring entries whose bytes are gone
+    synchronized Entry lookup(String prompt) {
+        Entry entry = entries.get(prompt);
+        if (entry != null && !images.contains(entry.hash)) {
+            entries.remove(prompt);
+            release(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    // Adds or replaces an entry, evicting the least recently used prompts until the cache fits its byte budget
+    synchronized void record(Entry entry) {
+        Entry old = entries.put(entry.prompt, entry);
+        retain(entry);
+        List<String> unused = new ArrayList<>(); // Content hashes no entry points at any more
+        if (old != null && release(old)) {
+            unused.add(old.hash);
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            if (eldest == entry) {
+                continue; // Never evict the image that was just generated
+            }
+            it.remove();
+            if (release(eldest)) {
+                unused.add(eldest.hash);
+            }
+        }
+        for (String hash : unused) {
+            images.remove(hash); // Only bytes no other prompt still points at
+        }
+        writeIndex();
+    }
+
+    // Counts an entry pointing at its image, the bytes are only added for the first entry that does
+    void retain(Entry entry) {
+        if (references.merge(entry.hash, 1, Integer::sum) == 1) {
+            totalBytes += entry.size;
+        }
+    }
+
+    // Stops counting an entry, returns true when it was the last one pointing at its image
+    boolean release(Entry entry) {
+        int left = references.merge(entry.hash, -1, Integer::sum);
+        if (left > 0) {
+            return false;
+        }
+        references.remove(entry.hash);
+        totalBytes -= entry.size;
+        return true;
+    }
+
+    // Reads the prompt index written by an earlier run
+    synchronized void readIndex() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(indexFile, StandardCharsets.UTF_8)) {
+                String[] parts = line.split("\t");
+                if (parts.length != 5) {
+                    continue; // Skips lines that do not belong to this format
+                }
+                String prompt = new String(Base64.getDecoder().decode(parts[0]), StandardCharsets.UTF_8);
+                Entry entry = new Entry(prompt, parts[1], parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+                Entry old = entries.put(prompt, entry);
+                if (old != null) {
+                    release(old);
+                }
+                retain(entry);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace(); // A broken index only costs the cached prompts, not the game
+        }
+    }
+
+    // Writes the prompt index, least recently used first so the order survives a restart
+    synchronized void writeIndex() {
+        StringBuilder out = new StringBuilder();
+        for (Entry entry : entries.values()) {
+            out.append(Base64.getEncoder().encodeToString(entry.prompt.getBytes(StandardCharsets.UTF_8))).append('\t')
+                    .append(entry.hash).append('\t')
+                    .append(entry.url).append('\t')
+                    .append(entry.createdAt).append('\t')
+                    .append(entry.size).append('\n');
+        }
+        try {
+            Files.createDirectories(indexFile.getParent());
+            ImageLoader.writeAtomically(indexFile, out.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Hit and miss counters
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PromptCache[hits=" + hits + ", misses=" + misses + ", coalesced=" + coalesced + ", staleHits=" + staleHits
+                + ", entries=" + entries.size() + ", bytes=" + totalBytes + "]";
+    }
+}
@@ -1,48 +1,129 @@
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
-import java.io.IOException;
-import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
 
-public class PuzzleBoard {
+public class PuzzleBoard implements BoardState {
     int rows; // # of rows
     int cols; // # of columns
     List<ImagePiece> pieces; // List containing all the puzzle pieces
     BufferedImage solvedImage; // Full image that is created for the puzzle game
+    int correctCount; // # of pieces that look correct -> the right piece, or one with exactly the same pixels, in the right orientation
+    int[] targetLooks; // Cell -> first cell whose piece looks exactly like this cell's piece, null for a board without an image
+    long seed; // Seed the pieces were shuffled with, replaying it gives the same board
+    ShuffleEngine.Difficulty difficulty; // Profile the pieces were shuffled with
 
-    // The constructor
+    // The constructor, loading the image from the given URL
     PuzzleBoard(int rows, int cols, String imageUrl) {
+        this(rows, cols, loadImage(imageUrl));
+    }
+
+    // The constructor, slicing an image that was already loaded
+    PuzzleBoard(int rows, int cols, BufferedImage image) {
+        this(rows, cols, image, null);
+    }
+
+    // The constructor, slicing an image and putting the pieces in the given layout, a new shuffle when it is null
+    PuzzleBoard(int rows, int cols, BufferedImage image, ShuffleEngine.Layout layout) {
+        long start = Metrics.start();
         this.rows = rows;
         this.cols = cols;
         this.pieces = new ArrayList<>();
 
-        // Load the image from the given URL
-        BufferedImage image = loadImage(imageUrl);
         int pieceWidth = image.getWidth() / cols;
         int pieceHeight = image.getHeight() / rows;
 
-        // Dividing the full original image into smaller puzzle pieces and add them to the (list-of pieces)
+        // Dividing the full original image into smaller puzzle pieces on every core, each piece gets its own copy of its pixels
+        // instead of a sub-image sharing the full raster, so Java2D can accelerate drawing it
+        ImagePiece[] sliced = new ImagePiece[rows * cols];
+        IntStream.range(0, sliced.length).parallel().forEach(i -> {
+            int row = i / cols;
+            int col = i % cols;
+            BufferedImage pieceImage = ImagePiece.createTileImage(pieceWidth, pieceHeight);
+            Graphics2D g2 = pieceImage.createGraphics();
+            g2.drawImage(image, 0, 0, pieceWidth, pieceHeight,
+                    col * pieceWidth, row * pieceHeight, (col + 1) * pieceWidth, (row + 1) * pieceHeight, null);
+            g2.dispose();
+            sliced[i] = new ImagePiece(row, col, pieceImage);
+        });
+        pieces.addAll(Arrays.asList(sliced));
+        findLooks(sliced);
+
+        // Rearranges the pieces in the puzzle before the puzzle game starts, or puts them back where a saved board had them
+        if (layout == null) {
+            shuffleAndTransformPieces();
+        } else {
+            applyLayout(layout);
+        }
+        this.solvedImage = image; // Stores the original puzzle image
+        Metrics.BOARD_BUILD_TIME.stop(start);
+    }
+
+    // The constructor for a board without an image, only the positions and orientations of the pieces are tracked (headless sessions)
+    PuzzleBoard(int rows, int cols) {
+        this.rows = rows;
+        this.cols = cols;
+        this.pieces = new ArrayList<>();
         for (int row = 0; row < rows; row++) {
             for (int col = 0; col < cols; col++) {
-                BufferedImage pieceImage = image.getSubimage(col * pieceWidth, row * pieceHeight, pieceWidth, pieceHeight);
-                ImagePiece piece = new ImagePiece(row, col, pieceImage);
-                pieces.add(piece); // Now each puzzle piece represents a Sub-image of the original
+                pieces.add(new ImagePiece(row, col, null));
             }
         }
-        // Rearranges the pieces in the puzzle before the puzzle game starts
         shuffleAndTransformPieces();
-        this.solvedImage = image; // Stores the original puzzle image
+    }
+
+    // Works out once which pieces look exactly alike -> every orientation of every piece is matched against the pieces as they
+    // are, so checking a piece later is one int comparison. Fingerprints pick the candidates, the pixels decide
+    void findLooks(ImagePiece[] sliced) {
+        long[][] hashes = new long[sliced.length][];
+        IntStream.range(0, sliced.length).parallel().forEach(i -> hashes[i] = TileHash.compute(sliced[i].image));
+
+        // Every cell points at the first cell with the same pixels, grouped by fingerprint so only likely twins are compared
+        targetLooks = new int[sliced.length];
+        Map<Long, List<Integer>> looksByHash = new HashMap<>(); // Fingerprint -> cells that are the first of their look
+        for (int i = 0; i < sliced.length; i++) {
+            List<Integer> candidates = looksByHash.computeIfAbsent(hashes[i][0], hash -> new ArrayList<>());
+            targetLooks[i] = i;
+            for (int candidate : candidates) {
+                if (TileHash.sameLook(sliced[candidate].image, sliced[i].image, 0)) {
+                    targetLooks[i] = candidate;
+                    break;
+                }
+            }
+            if (targetLooks[i] == i) {
+                candidates.add(i);
+            }
+        }
+
+        // Every orientation of every piece gets the look it shows, -1 when it looks like no piece as it is
+        IntStream.range(0, sliced.length).parallel().forEach(i -> {
+            int[] looks = new int[Orientation.COUNT];
+            for (int orientation = 0; orientation < Orientation.COUNT; orientation++) {
+                looks[orientation] = -1;
+                for (int candidate : looksByHash.getOrDefault(hashes[i][orientation], List.of())) {
+                    if (TileHash.sameLook(sliced[candidate].image, sliced[i].image, orientation)) {
+                        looks[orientation] = candidate;
+                        break;
+                    }
+                }
+            }
+            sliced[i].looks = looks;
+        });
     }
 
     // Method that returns the number of rows in a puzzle
+    @Override
     public int getRows() {
         return rows;
     }
 
     // Method that returns the number of columns in a puzzle
+    @Override
     public int getCols() {
         return cols;
     }
@@ -53,24 +134,83 @@ public class PuzzleBoard {
     }
 
     // Swaps two pieces from specific row and column to another row and column -> can be considered coordinates
+    @Override
     public void swapPieces(int row1, int col1, int row2, int col2) {
         int index1 = row1 * cols + col1;
         int index2 = row2 * cols + col2;
+        if (index1 == index2) {
+            return; // Swapping a piece with itself changes nothing
+        }
+        // Take both pieces out of the count before the swap and add them back after it
+        correctCount -= countCorrect(index1) + countCorrect(index2);
         Collections.swap(pieces, index1, index2);
+        placePiece(index1);
+        placePiece(index2);
+        correctCount += countCorrect(index1) + countCorrect(index2);
+    }
+
+    // Rotates the piece at a specific row and column to the left and keeps the solved count up to date
+    @Override
+    public void rotatePieceLeft(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        pieces.get(index).rotateLeft();
+        correctCount += countCorrect(index);
+    }
+
+    // Rotates the piece at a specific row and column to the right and keeps the solved count up to date
+    @Override
+    public void rotatePieceRight(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        pieces.get(index).rotateRight();
+        correctCount += countCorrect(index);
     }
 
-    // Checks if the puzzle is solved checking that the puzzle pieces are in their correct positions and place
+    // Flips the piece at a specific row and column and keeps the solved count up to date
+    @Override
+    public void flipPiece(int row, int col) {
+        int index = row * cols + col;
+        correctCount -= countCorrect(index);
+        pieces.get(index).flip();
+        correctCount += countCorrect(index);
+    }
+
+    // Checks if the puzzle is solved -> every piece is in its correct position, not rotated and not flipped
+    @Override
     public boolean isSolved() {
-        // Compare each piece's current position with the correct position based on the original image
+        return correctCount == pieces.size();
+    }
+
+    // Returns 1 if the piece at the given index looks correct, otherwise 0
+    int countCorrect(int index) {
+        ImagePiece piece = pieces.get(index);
+        return looksCorrect(index, piece, piece.orientationIndex()) ? 1 : 0;
+    }
+
+    // Whether a piece shown in an orientation looks correct in a cell -> it is the cell's own piece untransformed, or has
+    // exactly the same pixels as that piece shown that way (solid sky), possibly after being rotated
+    boolean looksCorrect(int index, ImagePiece piece, int orientation) {
+        if (targetLooks != null) {
+            return piece.looks[orientation] == targetLooks[index];
+        }
+        return piece.correctRow * cols + piece.correctCol == index && orientation == 0;
+    }
+
+    // Updates the current row and column of the piece that now sits at the given index
+    void placePiece(int index) {
+        ImagePiece piece = pieces.get(index);
+        piece.currentRow = index / cols;
+        piece.currentCol = index % cols;
+    }
+
+    // Recounts every piece from scratch, only needed after the whole board is rearranged
+    void recountCorrect() {
+        correctCount = 0;
         for (int i = 0; i < pieces.size(); i++) {
-            ImagePiece piece = pieces.get(i); // Gets piece from index "i"
-            int correctRow = i / cols;
-            int correctCol = i % cols;
-            if (piece.getCurrentRow() != correctRow || piece.getCurrentCol() != correctCol) {
-                return false;
-            }
+            placePiece(i);
+            correctCount += countCorrect(i);
         }
-        return true;
     }
 
     // Returns the list of all the pieces that are in the puzzle
@@ -78,19 +218,13 @@ public class PuzzleBoard {
         return pieces;
     }
 
-    // Load the image generate from the URL
-    public BufferedImage loadImage(String imageUrl) {
-        try {
-            URL url = new URL(imageUrl); // New URL holding generated URL value
-            return ImageIO.read(url); // Return image using the URL
-        } catch (IOException e) {
-            e.printStackTrace(); // Prints exception case
-            return emptyImage(); // Default image if it fails
-        }
+    // Load the image generate from the URL, through the shared loader so an image is only downloaded once
+    public static BufferedImage loadImage(String imageUrl) {
+        return ImageLoader.SHARED.load(imageUrl);
     }
 
     // Set back emptyImage if the loadImage method fails, to avoid using null
-    public BufferedImage emptyImage() {
+    public static BufferedImage emptyImage() {
         int width = 100, height = 100;
         BufferedImage fallbackImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g2 = fallbackImage.createGraphics();
@@ -102,20 +236,45 @@ public class PuzzleBoard {
         return fallbackImage;
     }
 
-    // Shuffles the pieces for the puzzle game applying random transformation -> rotate L, rotate R, flip
+    // Shuffles the pieces for the puzzle game from a new seed, applying random transformations -> rotate, flip
+    @Override
     public void shuffleAndTransformPieces() {
-        Collections.shuffle(pieces);
-        // For each piece that is a ImagePiece in a list of pieces apply, the random transformation before the puzzle game starts to shuffle the board
+        shuffle(ShuffleEngine.nextSeed(), ShuffleEngine.DEFAULT_DIFFICULTY);
+    }
+
+    // Shuffles the pieces into the layout the seed gives, the same seed always gives the same board
+    @Override
+    public void shuffle(long seed, ShuffleEngine.Difficulty difficulty) {
+        applyLayout(ShuffleEngine.layout(pieces.size(), seed, difficulty));
+    }
+
+    // Puts every piece in the cell and orientation the layout gives it
+    @Override
+    public void applyLayout(ShuffleEngine.Layout layout) {
+        ImagePiece[] byCell = new ImagePiece[pieces.size()]; // Piece -> looked up by the cell it belongs in
         for (ImagePiece piece : pieces) {
-            if (Math.random() > 0.33) { // 33% chance for this to happen
-                piece.rotateLeft();
-            }
-            if (Math.random() > 0.33) { // 33% chance for this to happen
-                piece.rotateRight();
-            }
-            if (Math.random() > 0.33) { // 33% chance for this to happen
-                piece.flip();
-            }
+            byCell[piece.correctRow * cols + piece.correctCol] = piece;
+        }
+        for (int i = 0; i < byCell.length; i++) {
+            ImagePiece piece = byCell[layout.permutation[i]];
+            piece.rotation = Orientation.degrees(layout.orientations[i]);
+            piece.flipped = Orientation.isFlipped(layout.orientations[i]);
+            pieces.set(i, piece);
         }
+        this.seed = layout.seed;
+        this.difficulty = layout.difficulty;
+        recountCorrect(); // The whole board changed, so the solved count is rebuilt once here
+    }
+
+    // Seed the pieces were shuffled with
+    @Override
+    public long getSeed() {
+        return seed;
+    }
+
+    // Profile the pieces were shuffled with
+    @Override
+    public ShuffleEngine.Difficulty getDifficulty() {
+        return difficulty;
     }
 }
@@ -1,4 +1,3 @@
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.KeyAdapter;
@@ -6,44 +5,53 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
 import java.io.IOException;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class PuzzleGUI extends JPanel {
+    private static final long serialVersionUID = 1L;
+
+    static final Font STATUS_FONT = new Font("Arial", Font.PLAIN, 20); // Font of the timer strip, created once
+    static final int STATUS_HEIGHT = 50; // Height of the timer strip under the board
+    static final int BOARD_SIZE = 500; // Longest side of the board on screen, in pixels
+
+    PuzzleSession session; // Game state -> moves, time and solved flag, the panel only draws it and forwards input
     PuzzleBoard board; // The puzzle board that has all the pieces
     int boxSize; // The size of each individual puzzle piece
     int selectedRow = -1; // X Coordinate of the current selected piece (-1 no piece chosen)
     int selectedCol = -1; // Y Coordinate of the current selected piece (-1 no piece chosen)
-    int startTime; // Start timer of the puzzle game
-    int endTime; // End timer of the puzzle game when solved
-    boolean isSolved; // Determines if the puzzle is solved
-    int totalSecond; // Time passed by since the puzzle started in seconds
-    Timer timer; // Increments every second
-    String imageUrl; // URL of the image generated for the puzzle
-    BufferedImage solvedImage; // Represents the solved image used for comparison
-
-    // The constructor
-    PuzzleGUI(PuzzleBoard board, String imageUrl) {
-        // Initialize both the board and image URL
+    boolean solvedShown; // Determines if the solved message was already shown
+    Timer timer; // Refreshes the timer strip every second
+    Image boardBuffer; // Back buffer holding the rendered board, only touched tiles are redrawn into it, in video memory when accelerated
+    TileAtlas atlas; // Every tile pre-scaled to boxSize, pieces are blitted out of it
+    CompletableFuture<PuzzleSolver.Solution> solving; // Layout the solver rebuilt for hints, null until asked or after a move
+    boolean hintWanted; // A hint was asked for while the solver was still running, it is played once the solver is done
+
+    // The constructor, starting a new session on the board
+    PuzzleGUI(PuzzleBoard board) {
+        this(board, new PuzzleSession(0, board));
+    }
+
+    // The constructor, showing an existing session that plays on the given board
+    PuzzleGUI(PuzzleBoard board, PuzzleSession session) {
+        // Initialize the board and its session
         this.board = board;
-        this.imageUrl = imageUrl;
-        // Initialize the starting time and puzzle state
-        this.startTime = (int) System.currentTimeMillis();
-        this.isSolved = false;
-        this.totalSecond = 0;
-        // Recognize the solved image for the comparison
-        this.solvedImage = loadImage(imageUrl);
+        this.session = session;
         // Determines the size of each puzzle piece
-        this.boxSize = 500 / Math.max(board.getCols(), board.getRows());
+        this.boxSize = BOARD_SIZE / Math.max(board.getCols(), board.getRows());
         // Bottom of puzzle timer
-        setPreferredSize(new Dimension(board.getCols() * boxSize, board.getRows() * boxSize + 50));
+        setPreferredSize(new Dimension(board.getCols() * boxSize, board.getRows() * boxSize + STATUS_HEIGHT));
         setBackground(Color.WHITE);
 
-        // Increases every second
+        // Fires every second, the session keeps the time itself so this only refreshes the display
         timer = new Timer(1000, e -> {
-            totalSecond++; // totalSecond = totalSecond + 1
             checkSolved(); // Checks every second if it is solved
-            repaint(); // Updates the timer panel display
+            repaintStatus(); // Only the timer strip changes every second
         });
         timer.start();
 
@@ -51,11 +59,12 @@ public class PuzzleGUI extends JPanel {
         addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
-                if (isSolved) return; // Ignore clicks if the puzzle is solved
+                if (session.isSolved()) return; // Ignore clicks if the puzzle is solved
 
                 // Calculate which column and row the mouse click happened in
                 int col = e.getX() / boxSize;
                 int row = e.getY() / boxSize;
+                if (row >= board.getRows() || col >= board.getCols()) return; // Ignore clicks on the timer strip
 
                 // If no piece is selected, select the clicked piece, remembers what piece was selected first
                 if (selectedRow == -1 && selectedCol == -1) {
@@ -63,10 +72,12 @@ public class PuzzleGUI extends JPanel {
                     selectedCol = col;
                 } else {
                     // If a piece is already selected, swap pieces with the new clicked piece
-                    board.swapPieces(selectedRow, selectedCol, row, col);
+                    session.apply(Move.swap(selectedRow, selectedCol, row, col));
+                    forgetSolution();
+                    repaintTile(selectedRow, selectedCol);
+                    repaintTile(row, col);
                     selectedRow = -1;
                     selectedCol = -1;
-                    repaint();
                 }
                 checkSolved(); // Checks if the puzzle is solved after a swap
             }
@@ -76,25 +87,43 @@ public class PuzzleGUI extends JPanel {
         addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e) {
-                if (isSolved) return; // Ignores key presses once the puzzle is solved
+                // Ctrl+S -> saves the board so it can be resumed later
+                if (e.isControlDown() && e.getKeyCode() == KeyEvent.VK_S) {
+                    saveSnapshot();
+                    return;
+                }
+                if (session.isSolved()) return; // Ignores key presses once the puzzle is solved
+
+                // Ctrl+Z / Ctrl+Y -> undo and redo, they take back whole moves so they need no selection either
+                if (e.isControlDown() && (e.getKeyCode() == KeyEvent.VK_Z || e.getKeyCode() == KeyEvent.VK_Y)) {
+                    repaintMove(e.getKeyCode() == KeyEvent.VK_Z ? session.undo() : session.redo());
+                    forgetSolution();
+                    checkSolved();
+                    return;
+                }
+
+                // H -> plays the next move the solver suggests, works from the pieces alone so it needs no selection
+                if (e.getKeyCode() == KeyEvent.VK_H) {
+                    showHint();
+                    return;
+                }
 
                 // If a valid piece position is selected, get the row and column it was selected from
                 if (selectedRow != -1 && selectedCol != -1) {
-                    ImagePiece selectedPiece = board.getPieceAt(selectedRow, selectedCol);
-
-                    // Cases for each key press
+                    // Cases for each key press, applied through the session so it can keep its state up to date
                     switch (e.getKeyCode()) {
                         case KeyEvent.VK_L:
-                            selectedPiece.rotateLeft();
+                            session.apply(Move.rotateLeft(selectedRow, selectedCol));
                             break;
                         case KeyEvent.VK_R:
-                            selectedPiece.rotateRight();
+                            session.apply(Move.rotateRight(selectedRow, selectedCol));
                             break;
                         case KeyEvent.VK_F:
-                            selectedPiece.flip();
+                            session.apply(Move.flip(selectedRow, selectedCol));
                             break;
                     }
-                    repaint();
+                    forgetSolution();
+                    repaintTile(selectedRow, selectedCol);
                 }
                 checkSolved(); // Checks if the puzzle is solved after a rotated or flipped piece
             }
@@ -103,83 +132,170 @@ public class PuzzleGUI extends JPanel {
         requestFocusInWindow(); // Ensures keyboard inputs respond appropriately
     }
 
-    // Load the image generate from the URL
-    public BufferedImage loadImage(String imageUrl) {
+    // Checks if the puzzle is solved -> correct piece position and rotation and flipped correct
+    public void checkSolved() {
+        long start = Metrics.start();
+        // The session tracks the solved state as moves are applied, so this check does not need any image work
+        if (!solvedShown && session.isSolved()) {
+            // If puzzle is solved, end the timer, pop a JPanel message telling the user the puzzle is solved with how long it took
+            solvedShown = true;
+            timer.stop();
+            Metrics.CHECK_SOLVED_TIME.stop(start); // Measured before the dialog, which blocks until the user closes it
+            JOptionPane.showMessageDialog(this, "Puzzle is solved in " + session.getElapsedSeconds() + " seconds!");
+            repaint();
+            return;
+        }
+        Metrics.CHECK_SOLVED_TIME.stop(start);
+    }
+
+    // Applies the next move towards the layout the solver rebuilds from the piece edges, and redraws the tiles it touched
+    // The solver runs on a worker the first time, since it takes too long for the event thread, and its layout is kept for
+    // the hints after it until the player moves a piece
+    public void showHint() {
+        if (session.isSolved()) {
+            return;
+        }
+        if (solving == null) {
+            List<ImagePiece> pieces = new ArrayList<>(board.getPieces()); // Copied here, the worker must not see the board change
+            solving = CompletableFuture.supplyAsync(
+                    () -> new PuzzleSolver(pieces, board.getRows(), board.getCols()).solve(), PuzzleLoader.WORKERS);
+        }
+        if (!solving.isDone()) {
+            if (!hintWanted) {
+                hintWanted = true;
+                CompletableFuture<PuzzleSolver.Solution> asked = solving;
+                asked.whenComplete((solution, error) -> SwingUtilities.invokeLater(() -> {
+                    if (asked == solving && hintWanted) {
+                        hintWanted = false;
+                        showHint();
+                    }
+                }));
+            }
+            return;
+        }
+        PuzzleSolver.Solution solution;
         try {
-            URL url = new URL(imageUrl); // New URL holding generated URL value
-            return ImageIO.read(url); // Return image using the URL
-        } catch (IOException e) {
-            e.printStackTrace(); // Prints exception case
-            return emptyImage(); // Default image if it fails
+            solution = solving.join();
+        } catch (CompletionException | CancellationException e) {
+            e.printStackTrace();
+            solving = null; // Tried again on the next hint
+            return;
+        }
+        Move hint = PuzzleSolver.hint(board, solution);
+        if (hint == null) {
+            JOptionPane.showMessageDialog(this, "No sure hint right now, try placing a few more pieces yourself!");
+            return;
         }
+        if (session.apply(hint)) {
+            repaintMove(hint);
+        }
+        checkSolved();
     }
 
-    // Set back emptyImage if the loadImage method fails, to avoid using null
-    public BufferedImage emptyImage() {
-        int width = 100, height = 100;
-        BufferedImage fallbackImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2 = fallbackImage.createGraphics();
-        g2.setColor(Color.LIGHT_GRAY);
-        g2.fillRect(0, 0, width, height);
-        g2.setColor(Color.RED);
-        g2.drawString("Image Not Found", 10, 50);
-        g2.dispose();
-        return fallbackImage;
+    // Drops the layout kept for hints after the player moved a piece, a hint still waiting for it is dropped as well
+    void forgetSolution() {
+        if (solving != null) {
+            solving.cancel(false);
+            solving = null;
+        }
+        hintWanted = false;
     }
 
-    // Checks if the puzzle is solved -> correct piece position and rotation and flipped correct
-    public void checkSolved() {
-        if (solvedImage != null && board.isSolved()) {
-            // Goes through each board piece and checks if the rotation of it is the same as the generated image
-            for (ImagePiece piece : board.getPieces()) {
-                BufferedImage pieceImage = piece.getImage();
-                BufferedImage correctPieceImage = piece.getCorrectImage(); // Correct image piece comparison
-                if (pieceImage != null && !compareImages(pieceImage, correctPieceImage)) {
-                    return; // If the pieces do not match, puzzle is not solved yet
-                }
-            }
-            // If puzzle is solved, end the timer, pop a JPanel message telling the user the puzzle is solved with how long it took
-            isSolved = true;
-            endTime = (int) System.currentTimeMillis();
-            timer.stop();
-            JOptionPane.showMessageDialog(this, "Puzzle is solved in " + totalSecond + " seconds!");
-            repaint();
+    // Redraws the tiles a move touched and clears the selection, does nothing for a null move
+    public void repaintMove(Move move) {
+        if (move == null) return;
+        repaintTile(move.row1, move.col1);
+        if (move.type == Move.Type.SWAP) {
+            repaintTile(move.row2, move.col2);
+        }
+        selectedRow = -1;
+        selectedCol = -1;
+    }
+
+    // Saves the board to the snapshot file, or deletes the snapshot once the puzzle is solved since there is nothing to resume
+    public void saveSnapshot() {
+        if (session.isSolved()) {
+            BoardSnapshot.delete(BoardSnapshot.defaultFile());
+            return;
+        }
+        try {
+            BoardSnapshot.save(board, BoardSnapshot.defaultFile());
+        } catch (IOException e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not save the puzzle!\n" + e.getMessage());
         }
     }
 
-    // Compares two images pixel by pixel from the generate image for rotation
-    public boolean compareImages(BufferedImage image1, BufferedImage image2) {
-        for (int y = 0; y < image1.getHeight(); y++) { // Y coordinate
-            for (int x = 0; x < image1.getWidth(); x++) { // X coordinate
-                if (image1.getRGB(x, y) != image2.getRGB(x, y)) {
-                    return false; // If they do not match, images not identical
+    // Redraws a single tile into the back buffer and repaints only that part of the panel
+    public void repaintTile(int row, int col) {
+        if (boardBuffer != null) {
+            Graphics2D g2 = (Graphics2D) boardBuffer.getGraphics();
+            drawPiece(g2, board.getPieceAt(row, col), col * boxSize, row * boxSize);
+            g2.dispose();
+        }
+        repaint(col * boxSize, row * boxSize, boxSize, boxSize);
+    }
+
+    // Repaints only the timer strip under the board
+    public void repaintStatus() {
+        repaint(0, board.getRows() * boxSize, getWidth(), STATUS_HEIGHT);
+    }
+
+    // Renders every tile into a new back buffer, only done once or when the buffer is lost
+    public void renderBoard() {
+        GraphicsConfiguration config = GraphicsEnvironment.isHeadless() ? null : getGraphicsConfiguration();
+        if (atlas == null) {
+            atlas = new TileAtlas(board.getPieces(), board.getRows(), board.getCols(), boxSize, config);
+        }
+        // The back buffer lives in video memory when there is a screen to accelerate it, in memory otherwise (headless)
+        if (!(boardBuffer instanceof VolatileImage) || ((VolatileImage) boardBuffer).validate(config) == VolatileImage.IMAGE_INCOMPATIBLE) {
+            boardBuffer = config != null
+                    ? config.createCompatibleVolatileImage(board.getCols() * boxSize, board.getRows() * boxSize)
+                    : new BufferedImage(board.getCols() * boxSize, board.getRows() * boxSize, BufferedImage.TYPE_INT_RGB);
+        }
+        do {
+            Graphics2D g2 = (Graphics2D) boardBuffer.getGraphics();
+            for (int row = 0; row < board.getRows(); row++) { // Each row
+                for (int col = 0; col < board.getCols(); col++) { // Each column
+                    ImagePiece piece = board.getPieceAt(row, col); // Specific image piece at a certain coordinate
+                    drawPiece(g2, piece, col * boxSize, row * boxSize); // Draws the piece that goes in that spot
                 }
             }
-        }
-        return true; // If they do match, images are identical
+            g2.dispose();
+        } while (atlas.contentsLost()); // The atlas lost its video memory while it was drawn from, so the tiles are drawn again
+    }
+
+    // Whether the back buffer in video memory was lost or restored empty, and has to be rendered again before it is shown
+    boolean bufferLost() {
+        return boardBuffer instanceof VolatileImage
+                && ((VolatileImage) boardBuffer).validate(getGraphicsConfiguration()) != VolatileImage.IMAGE_OK;
     }
 
     @Override
     public void paintComponent(Graphics g) {
+        long start = Metrics.start();
         super.paintComponent(g);
 
-        for (int row = 0; row < board.getRows(); row++) { // Each row
-            for (int col = 0; col < board.getCols(); col++) { // Each column
-                ImagePiece piece = board.getPieceAt(row, col); // Specific image piece at a certain coordinate
-                drawPiece(g, piece, col * boxSize, row * boxSize); // Draws the piece that goes in that spot
+        // Copies the back buffer, the clip set by repaintTile/repaintStatus keeps this to the dirty region
+        // Video memory can be taken away at any time (display change, another program), the board is then rendered again
+        do {
+            if (boardBuffer == null || bufferLost()) {
+                renderBoard();
             }
-        }
+            g.drawImage(boardBuffer, 0, 0, null);
+        } while (boardBuffer instanceof VolatileImage && ((VolatileImage) boardBuffer).contentsLost());
 
         // Timer portion on the bottom of the puzzle game for the user to see how much time has passed by
-        g.setFont(new Font("Arial", Font.PLAIN, 20));
+        g.setFont(STATUS_FONT);
         g.setColor(Color.BLACK);
-        g.drawString("Time: " + totalSecond + " seconds", getWidth() / 2 - 75, board.getRows() * boxSize + 30);
+        g.drawString("Time: " + session.getElapsedSeconds() + " seconds", getWidth() / 2 - 75, board.getRows() * boxSize + 30);
+        Metrics.FRAME_TIME.stop(start);
     }
 
-    //  Draws the piece of each generated puzzle piece
+    //  Draws the piece of each generated puzzle piece, blitted out of the atlas with its rotation and flip applied
     public void drawPiece(Graphics g, ImagePiece piece, int x, int y) {
-        if (piece.getImage() != null) {
-            g.drawImage(piece.getImage(), x, y, boxSize, boxSize, null); // We do not care about the loading state of the image, only copying the image
+        if (piece.image != null) {
+            atlas.draw((Graphics2D) g, piece, x, y);
         } else {
             g.setColor(Color.BLACK);
             g.drawRect(x, y, boxSize, boxSize);
@@ -1,8 +1,35 @@
 import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 public class PuzzleGame {
     public static void main(String[] args) {
+        Metrics.startExporters(); // Only when run with -Dpuzzle.metrics=true
         try {
+            // Offers to continue the puzzle that was left unsolved last time, restored from its snapshot without any download
+            Path snapshot = BoardSnapshot.defaultFile();
+            if (Files.exists(snapshot) && JOptionPane.showConfirmDialog(null, "Resume your last puzzle?", "Puzzle Game",
+                    JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                try {
+                    JFrame frame = new JFrame("Puzzle Game");
+                    frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                    frame.setResizable(false);
+                    showPuzzle(frame, BoardSnapshot.restore(snapshot));
+                    frame.setVisible(true);
+                    return;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    BoardSnapshot.delete(snapshot); // It would fail the same way on every start
+                    JOptionPane.showMessageDialog(null, "Could not resume the puzzle, starting a new one!");
+                }
+            }
+
             // Creates a JOptionPane for the user to input the prompt to generate the image
             String prompt = JOptionPane.showInputDialog("Enter a prompt for the image: ");
             if (prompt == null || prompt.trim().isEmpty()) {
@@ -10,6 +37,15 @@ public class PuzzleGame {
                 return;
             }
 
+            // With prefetching on, images for the prompt start generating while the user picks the dimensions
+            ImagePrefetcher prefetcher = null;
+            int prefetchDepth = Integer.getInteger("puzzle.prefetch.depth", 0);
+            if (prefetchDepth > 0) {
+                prefetcher = new ImagePrefetcher(OpenAI.CLIENT, OpenAI.OPENAI_API_URL, OpenAI.OPENAI_API_KEY, ImageLoader.SHARED,
+                        prefetchDepth, Integer.getInteger("puzzle.prefetch.batchSize", prefetchDepth));
+                prefetcher.prefetch(prompt);
+            }
+
             // Prompt the user to set up their desired dimensions for their puzzle
             String rowsInput = JOptionPane.showInputDialog("Enter number of rows for the puzzle: ");
             String colsInput = JOptionPane.showInputDialog("Enter number of columns for the puzzle: ");
@@ -32,31 +68,58 @@ public class PuzzleGame {
                 return;
             }
 
-            // Fetch the image URL from AzureAI class
-            String imageUrl = OpenAI.fetchImage(prompt);
-
-            // Invalid URL link
-            if (imageUrl == null) {
-                JOptionPane.showMessageDialog(null, "Not able to generate image, please try again!");
-                return;
-            }
-
-            // For the user to see the generate URL, be able to see how the puzzle should look like if needed
-            System.out.println("Generated Image URL: " + imageUrl);
-
-            // Sets up the GUI for the puzzle game
-            PuzzleBoard board = new PuzzleBoard(rows, cols, imageUrl);
-            PuzzleGUI gui = new PuzzleGUI(board, imageUrl);
+            // Shows the frame right away with a placeholder while the image is generated and downloaded
+            LoadingPanel loadingPanel = new LoadingPanel(prompt);
             JFrame frame = new JFrame("Puzzle Game");
             frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-            frame.add(gui);
+            frame.add(loadingPanel);
             frame.pack();
             frame.setVisible(true);
             frame.setResizable(false);
 
+            // Prompt -> image URL -> downloaded image -> sliced board, all off the Swing thread
+            CompletableFuture<PuzzleBoard> loading = new PuzzleLoader(OpenAI.CLIENT, OpenAI.OPENAI_API_URL, OpenAI.OPENAI_API_KEY,
+                    Duration.ofMinutes(3), PromptCache.SHARED, prefetcher).load(prompt, rows, cols, loadingPanel::update);
+
+            // Closing the window while loading stops the pipeline
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    loading.cancel(true);
+                }
+            });
+
+            // Sets up the GUI for the puzzle game once the board is ready
+            loading.whenComplete((board, error) -> SwingUtilities.invokeLater(() -> {
+                if (error != null) {
+                    if (!(error instanceof CancellationException)) {
+                        error.printStackTrace();
+                        JOptionPane.showMessageDialog(frame, "Not able to generate image, please try again!\n" + error.getMessage());
+                    }
+                    frame.dispose();
+                    return;
+                }
+                showPuzzle(frame, board);
+            }));
+
         } catch (Exception e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(null, "Error: " + e.getMessage()); // Prints the error if any error occurs
         }
     }
+
+    // Sets up the GUI for the puzzle game in the frame, the board is saved when the window is closed so it can be resumed
+    static void showPuzzle(JFrame frame, PuzzleBoard board) {
+        PuzzleGUI gui = new PuzzleGUI(board);
+        frame.getContentPane().removeAll();
+        frame.add(gui);
+        frame.pack();
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                gui.saveSnapshot();
+            }
+        });
+        gui.requestFocusInWindow(); // Ensures keyboard inputs respond appropriately
+    }
 }
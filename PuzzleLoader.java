@@ -0,0 +1,114 @@
+import java.awt.image.BufferedImage;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+public class PuzzleLoader {
+    // Receives progress updates while a puzzle is being prepared, percent is -1 when it is not known
+    public interface ProgressListener {
+        void progress(String stage, int percent);
+    }
+
+    // Worker threads for the blocking parts of the pipeline (reading the download, decoding, slicing)
+    static final ExecutorService WORKERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "puzzle-loader");
+        thread.setDaemon(true); // Never keeps the game from exiting
+        return thread;
+    });
+
+    HttpClient client; // Pooled HTTP client used for both the API call and the image download
+    String apiUrl; // Image generation endpoint
+    String apiKey; // Key sent to the image generation endpoint
+    Duration timeout; // Time allowed for the whole pipeline, from prompt to sliced board
+    PromptCache prompts; // Generates, downloads and caches the image for a prompt
+    ImagePrefetcher prefetcher; // Pool of images generated ahead of time, null when prefetching is off
+
+    // The constructor, using the shared client and the API URL and KEY from the environment
+    PuzzleLoader() {
+        this(OpenAI.CLIENT, OpenAI.OPENAI_API_URL, OpenAI.OPENAI_API_KEY, Duration.ofMinutes(3), PromptCache.SHARED);
+    }
+
+    // The constructor, the endpoint can point at a local stub server
+    PuzzleLoader(HttpClient client, String apiUrl, String apiKey, Duration timeout, PromptCache prompts) {
+        this(client, apiUrl, apiKey, timeout, prompts, null);
+    }
+
+    // The constructor, taking images from the prefetch pool before generating new ones
+    PuzzleLoader(HttpClient client, String apiUrl, String apiKey, Duration timeout, PromptCache prompts, ImagePrefetcher prefetcher) {
+        this.client = client;
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+        this.timeout = timeout;
+        this.prompts = prompts;
+        this.prefetcher = prefetcher;
+    }
+
+    // Runs prompt -> image URL -> downloaded bytes -> decoded image -> sliced board without blocking the caller
+    // Cancelling the returned future cancels whichever stage is currently running
+    public CompletableFuture<PuzzleBoard> load(String prompt, int rows, int cols, ProgressListener listener) {
+        CompletableFuture<PuzzleBoard> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<?>> current = new AtomicReference<>(); // Stage that is running right now
+
+        // Once the result is cancelled, times out or fails, stop the stage that is still running
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((board, error) -> {
+            CompletableFuture<?> stage = current.get();
+            if (error != null && stage != null) {
+                stage.cancel(true);
+            }
+        });
+
+        // An image from the prefetch pool comes first, then a prompt that was played before loads straight from the local cache,
+        // otherwise it is generated and downloaded
+        CompletableFuture<BufferedImage> pooled = prefetcher != null ? prefetcher.next(prompt) : null;
+        CompletableFuture<BufferedImage> image;
+        if (pooled != null) {
+            listener.progress("Taking image from the prefetch pool", -1);
+            // A load that ends without a board stops waiting for the pool, and puts back an image it already took
+            result.whenComplete((board, error) -> {
+                if (error != null && !pooled.cancel(true) && !pooled.isCompletedExceptionally()) {
+                    prefetcher.giveBack(prompt, pooled.join());
+                }
+            });
+            image = stage(result, current, () -> pooled.exceptionallyCompose(error -> stage(result, current,
+                    () -> prompts.get(prompt, p -> OpenAI.fetchImageAsync(client, apiUrl, apiKey, p), listener))));
+        } else {
+            listener.progress("Generating image", -1);
+            image = stage(result, current,
+                    () -> prompts.get(prompt, p -> OpenAI.fetchImageAsync(client, apiUrl, apiKey, p), listener));
+        }
+
+        image.thenCompose(solvedImage -> {
+                    listener.progress("Slicing puzzle", -1);
+                    return stage(result, current, () -> CompletableFuture.supplyAsync(() -> new PuzzleBoard(rows, cols, solvedImage), WORKERS));
+                })
+                .whenComplete((board, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                    } else {
+                        listener.progress("Ready", 100);
+                        result.complete(board);
+                    }
+                });
+        return result;
+    }
+
+    // Starts the next stage unless the whole load was already cancelled, and remembers it so it can be cancelled later
+    <T> CompletableFuture<T> stage(CompletableFuture<?> result, AtomicReference<CompletableFuture<?>> current, Supplier<CompletableFuture<T>> next) {
+        if (result.isDone()) {
+            return CompletableFuture.failedFuture(new CancellationException("Puzzle loading was cancelled"));
+        }
+        CompletableFuture<T> stage = next.get();
+        current.set(stage);
+        if (result.isDone()) {
+            stage.cancel(true); // Cancelled while the stage was being started
+        }
+        return stage;
+    }
+}
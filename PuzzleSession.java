@@ -0,0 +1,105 @@
+public class PuzzleSession {
+    final long id; // Identifies the session inside its manager
+    final BoardState board; // The puzzle board that has all the pieces, a PuzzleBoard or a compact PackedBoard
+    final long startTime; // When the session started, in System.nanoTime() units
+    long endTime; // When the puzzle was solved, in System.nanoTime() units
+    long lastActivity; // When the last move was applied, used to close idle sessions
+    boolean solved; // Determines if the puzzle is solved
+    int moveCount; // Moves applied so far
+    final MoveLog log; // Every move applied, for undo/redo and for rebuilding the board from its seed
+
+    // The constructor, keeping the move log in memory
+    PuzzleSession(long id, BoardState board) {
+        this(id, board, new MoveLog(board));
+    }
+
+    // The constructor, recording into the given move log
+    PuzzleSession(long id, BoardState board, MoveLog log) {
+        this.id = id;
+        this.board = board;
+        this.log = log;
+        this.startTime = System.nanoTime();
+        this.lastActivity = startTime;
+        checkSolved(startTime); // A tiny board can come out of the shuffle already solved
+    }
+
+    // Applies a move, returns false when it was ignored because the puzzle is solved or the move is off the board
+    public synchronized boolean apply(Move move) {
+        if (solved || !move.fits(board.getRows(), board.getCols())) {
+            return false;
+        }
+        move.applyTo(board);
+        log.record(move);
+        Metrics.MOVES.mark();
+        moveCount++;
+        lastActivity = System.nanoTime();
+        checkSolved(lastActivity);
+        return true;
+    }
+
+    // Takes the last move back, returns the move that was applied to do so, or null when there is nothing to undo
+    public synchronized Move undo() {
+        return solved ? null : replayed(log.undo());
+    }
+
+    // Applies the last undone move again, returns it, or null when there is nothing to redo
+    public synchronized Move redo() {
+        return solved ? null : replayed(log.redo());
+    }
+
+    // Applies a move the log handed back for an undo or redo, it is already recorded so it only touches the board
+    Move replayed(Move move) {
+        if (move != null) {
+            move.applyTo(board);
+            Metrics.MOVES.mark();
+            moveCount++;
+            lastActivity = System.nanoTime();
+            checkSolved(lastActivity);
+        }
+        return move;
+    }
+
+    // Marks the session solved and stops its clock once the board is solved
+    void checkSolved(long now) {
+        if (!solved && board.isSolved()) {
+            solved = true;
+            endTime = now;
+        }
+    }
+
+    // Time passed by since the puzzle started in seconds, frozen once it is solved
+    public synchronized int getElapsedSeconds() {
+        long end = solved ? endTime : System.nanoTime();
+        return (int) ((end - startTime) / 1_000_000_000L);
+    }
+
+    public synchronized boolean isSolved() {
+        return solved;
+    }
+
+    public synchronized int getMoveCount() {
+        return moveCount;
+    }
+
+    // Nanoseconds since the last move, or since the start when there was none
+    public synchronized long getIdleNanos(long now) {
+        return now - lastActivity;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public BoardState getBoard() {
+        return board;
+    }
+
+    public MoveLog getLog() {
+        return log;
+    }
+
+    // Closes the move log file, called when the session is closed
+    public synchronized void close() {
+        log.close();
+    }
+}
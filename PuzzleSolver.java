@@ -0,0 +1,799 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+public class PuzzleSolver {
+    // Rebuilds a shuffled board from how the edges of its pieces fit together, never from where the pieces belong
+    static final int CANDIDATES = 8; // Best fitting neighbours remembered for every edge
+    static final int SEEDS = 8; // Layouts grown in parallel from different starting pieces, the one that fits best wins
+    static final int REFINE_PASSES = 8; // Most passes of local repairs after growing, each one stops early once nothing improves
+    static final int REPAIR_ROUNDS = 3; // Most rounds of shifting and regrowing the whole layout, stops early once nothing improves
+
+    // A rebuilt layout -> the piece and orientation of every cell
+    public static final class Solution {
+        final int rows; // # of rows
+        final int cols; // # of columns
+        final ImagePiece[] pieces; // Cell -> piece that goes there
+        final int[] orientations; // Cell -> orientation the piece is shown in, see Orientation
+        final long cost; // Total dissimilarity of every edge between neighbouring cells, lower fits better
+        final boolean[] sure; // Cell -> every neighbour it got is one of the two best fits for the edge they share
+
+        Solution(int rows, int cols, ImagePiece[] pieces, int[] orientations, long cost, boolean[] sure) {
+            this.rows = rows;
+            this.cols = cols;
+            this.pieces = pieces;
+            this.orientations = orientations;
+            this.cost = cost;
+            this.sure = sure;
+        }
+
+        public ImagePiece getPieceAt(int row, int col) {
+            return pieces[row * cols + col];
+        }
+
+        public int getOrientationAt(int row, int col) {
+            return orientations[row * cols + col];
+        }
+
+        public long getCost() {
+            return cost;
+        }
+
+        public boolean isSure(int row, int col) {
+            return sure[row * cols + col];
+        }
+    }
+
+    final ImagePiece[] input; // Pieces in the order they were handed in
+    final int rows; // # of rows
+    final int cols; // # of columns
+    final int n; // # of pieces
+    final int width; // Width of every piece in pixels
+    final int height; // Height of every piece in pixels
+    final int stride; // Ints per edge in the strip array
+    final int[] strips; // Every edge of every piece -> outer row of pixels then the row next to it, one int per color channel
+    final int[] candidates; // Edge slot (piece * 4 + edge) -> best fitting (piece * 8 + edge * 2 + reversed), CANDIDATES each
+    final long[] runnerUp; // Edge slot -> score of its second best fit, a match is only trusted when it clearly beats this
+    final boolean allowQuarterTurns; // Pieces that are not square can only be turned 0 or 180 degrees and still fit the grid
+
+    // The constructor, reading every edge strip out of the pieces once
+    PuzzleSolver(List<ImagePiece> pieces, int rows, int cols) {
+        this.input = pieces.toArray(new ImagePiece[0]);
+        this.rows = rows;
+        this.cols = cols;
+        this.n = input.length;
+        this.width = input[0].image.getWidth();
+        this.height = input[0].image.getHeight();
+        this.allowQuarterTurns = width == height;
+        this.stride = 2 * 3 * Math.max(width, height);
+        this.strips = new int[n * 4 * stride];
+        this.candidates = new int[n * 4 * CANDIDATES];
+        this.runnerUp = new long[n * 4];
+        IntStream.range(0, n).parallel().forEach(this::extractStrips);
+        IntStream.range(0, n * 4).parallel().forEach(this::findCandidates);
+    }
+
+    // Rebuilds the board from its pieces
+    public static Solution solve(PuzzleBoard board) {
+        return new PuzzleSolver(board.getPieces(), board.getRows(), board.getCols()).solve();
+    }
+
+    // Returns the next move towards the rebuilt layout, or null when there is no move worth suggesting
+    public static Move hint(PuzzleBoard board) {
+        return hint(board, solve(board));
+    }
+
+    // Returns the next move towards a layout rebuilt earlier, so one solve serves many hints
+    // The rebuilt layout is a guess, so only cells the solver is sure of are used, and where the pieces really belong is never
+    // looked at -> the move either brings the piece the solver put in that cell there, or turns it the way the solver shows it
+    public static Move hint(PuzzleBoard board, Solution solution) {
+        int cols = board.getCols();
+        List<ImagePiece> current = board.getPieces();
+        for (int cell = 0; cell < current.size(); cell++) {
+            ImagePiece target = solution.pieces[cell];
+            int wanted = solution.orientations[cell];
+            if (!solution.sure[cell] || current.get(cell) == target && target.orientationIndex() == wanted) {
+                continue;
+            }
+            int row = cell / cols, col = cell % cols;
+            if (current.get(cell) != target) {
+                return Move.swap(row, col, target.getCurrentRow(), target.getCurrentCol());
+            }
+            return turns(row, col, target.orientationIndex(), wanted).get(0);
+        }
+        return null;
+    }
+
+    // Returns every move that turns the board into the rebuilt layout
+    public static List<Move> autoSolve(PuzzleBoard board) {
+        return movesTo(board, solve(board));
+    }
+
+    // Length of an edge -> top and bottom run along the width, right and left along the height
+    int edgeLength(int edge) {
+        return (edge & 1) == 0 ? width : height;
+    }
+
+    // Copies the 4 edges of a piece into the strip array, each read clockwise around the piece
+    void extractStrips(int piece) {
+        BufferedImage image = input[piece].image;
+        int[] pixels = TileHash.intPixels(image);
+        int rowStride = TileHash.pixelStride(image);
+        int offset = TileHash.pixelOffset(image);
+        int inX = Math.min(1, width - 1), inY = Math.min(1, height - 1); // Tiles one pixel wide reuse the outer row
+        for (int edge = 0; edge < 4; edge++) {
+            int length = edgeLength(edge);
+            int base = (piece * 4 + edge) * stride;
+            for (int k = 0; k < length; k++) {
+                int ox, oy, ix, iy;
+                switch (edge) {
+                    case 0: // Top, left to right
+                        ox = k; oy = 0; ix = k; iy = inY;
+                        break;
+                    case 1: // Right, top to bottom
+                        ox = width - 1; oy = k; ix = width - 1 - inX; iy = k;
+                        break;
+                    case 2: // Bottom, right to left
+                        ox = width - 1 - k; oy = height - 1; ix = ox; iy = height - 1 - inY;
+                        break;
+                    default: // Left, bottom to top
+                        ox = 0; oy = height - 1 - k; ix = inX; iy = oy;
+                        break;
+                }
+                int outer = pixels[offset + oy * rowStride + ox];
+                int inner = pixels[offset + iy * rowStride + ix];
+                int o = base + k * 3;
+                int i = base + stride / 2 + k * 3;
+                strips[o] = outer >> 16 & 0xFF;
+                strips[o + 1] = outer >> 8 & 0xFF;
+                strips[o + 2] = outer & 0xFF;
+                strips[i] = inner >> 16 & 0xFF;
+                strips[i + 1] = inner >> 8 & 0xFF;
+                strips[i + 2] = inner & 0xFF;
+            }
+        }
+    }
+
+    // How badly two edges fit, predicting each side's next pixel from its last two and comparing with the other side
+    // Stops early once the score passes the bound, since it can then no longer be a candidate
+    long dissimilarity(int pieceA, int edgeA, int pieceB, int edgeB, boolean reversed, long bound) {
+        int length = edgeLength(edgeA);
+        int a = (pieceA * 4 + edgeA) * stride;
+        int b = (pieceB * 4 + edgeB) * stride;
+        int inner = stride / 2;
+        long score = 0;
+        for (int k = 0; k < length; k++) {
+            int m = reversed ? length - 1 - k : k;
+            int ao = a + k * 3, bo = b + m * 3;
+            for (int c = 0; c < 3; c++) {
+                int a0 = strips[ao + c], a1 = strips[ao + inner + c];
+                int b0 = strips[bo + c], b1 = strips[bo + inner + c];
+                score += Math.abs(2 * a0 - a1 - b0) + Math.abs(2 * b0 - b1 - a0);
+            }
+            if (score > bound) {
+                return score;
+            }
+        }
+        return score;
+    }
+
+    // Keeps the best fitting edges of every other piece for one edge slot
+    void findCandidates(int slot) {
+        int piece = slot / 4, edge = slot % 4;
+        long[] scores = new long[CANDIDATES];
+        int[] best = new int[CANDIDATES];
+        Arrays.fill(scores, Long.MAX_VALUE);
+        Arrays.fill(best, -1);
+        for (int other = 0; other < n; other++) {
+            if (other == piece) continue;
+            for (int otherEdge = 0; otherEdge < 4; otherEdge++) {
+                if (edgeLength(otherEdge) != edgeLength(edge)) continue;
+                for (int reversed = 0; reversed < 2; reversed++) {
+                    long score = dissimilarity(piece, edge, other, otherEdge, reversed == 1, scores[CANDIDATES - 1]);
+                    if (score >= scores[CANDIDATES - 1]) continue;
+                    int at = CANDIDATES - 1; // Insertion into the small sorted list
+                    while (at > 0 && scores[at - 1] > score) {
+                        scores[at] = scores[at - 1];
+                        best[at] = best[at - 1];
+                        at--;
+                    }
+                    scores[at] = score;
+                    best[at] = other * 8 + otherEdge * 2 + reversed;
+                }
+            }
+        }
+        System.arraycopy(best, 0, candidates, slot * CANDIDATES, CANDIDATES);
+        runnerUp[slot] = scores[1] == Long.MAX_VALUE ? scores[0] : scores[1];
+    }
+
+    // Edge of the untransformed piece that is shown on a side (0 top, 1 right, 2 bottom, 3 left) in an orientation
+    static int edgeOnSide(int orientation, int side) {
+        int turned = (side - Orientation.quarterTurns(orientation)) & 3;
+        return Orientation.isFlipped(orientation) ? (4 - turned) & 3 : turned;
+    }
+
+    // Orientation that shows an edge on a side, with the flip given
+    static int orientationShowing(int edge, int side, boolean flipped) {
+        int turned = flipped ? (4 - edge) & 3 : edge;
+        return ((side - turned) & 3) | (flipped ? Orientation.FLIPPED : 0);
+    }
+
+    // How badly two pieces fit when A is shown in orientation a and B in orientation b, with B on the given side of A
+    long fit(int pieceA, int orientationA, int side, int pieceB, int orientationB) {
+        int edgeA = edgeOnSide(orientationA, side);
+        int edgeB = edgeOnSide(orientationB, (side + 2) & 3);
+        boolean reversed = Orientation.isFlipped(orientationA) == Orientation.isFlipped(orientationB);
+        return dissimilarity(pieceA, edgeA, pieceB, edgeB, reversed, Long.MAX_VALUE);
+    }
+
+    // Grows a layout from each of the most confident pieces and keeps the one whose edges fit best overall
+    public Solution solve() {
+        return Arrays.stream(seedPieces()).parallel()
+                .mapToObj(this::grow)
+                .min(Comparator.comparingLong(Solution::getCost))
+                .orElseThrow();
+    }
+
+    // Grows the layout from one piece, always placing the best fitting piece next to what is already placed
+    Solution grow(int seed) {
+        int[] indices = new int[n];
+        int[] orientations = new int[n];
+        boolean[] keep = new boolean[n];
+        indices[0] = seed;
+        keep[0] = true;
+        fill(indices, orientations, keep);
+        refine(indices, orientations);
+        for (int round = 0; round < REPAIR_ROUNDS; round++) {
+            boolean shifted = repairGlobal(indices, orientations);
+            if (shifted) {
+                refine(indices, orientations);
+            }
+            if (!regrow(indices, orientations) && !shifted) {
+                break;
+            }
+        }
+        normalize(indices, orientations);
+        ImagePiece[] layout = new ImagePiece[n];
+        for (int i = 0; i < n; i++) {
+            layout[i] = input[indices[i]];
+        }
+        return new Solution(rows, cols, layout, orientations, totalCost(indices, orientations), sure(indices, orientations));
+    }
+
+    // Places every piece that is not kept, always the best fitting piece next to what is already placed
+    // The kept cells stay together as they are, while the rows x cols window can still move around them
+    void fill(int[] indices, int[] orientations, boolean[] keep) {
+        int canvasRows = 2 * rows - 1, canvasCols = 2 * cols - 1; // Big enough to grow in any direction from the kept cells
+        int[] placedPiece = new int[canvasRows * canvasCols];
+        int[] placedOrientation = new int[canvasRows * canvasCols];
+        Arrays.fill(placedPiece, -1);
+        boolean[] used = new boolean[n];
+
+        // Cached best candidate of every empty cell, recomputed only when something around it changes
+        int[] bestPiece = new int[canvasRows * canvasCols];
+        int[] bestOrientation = new int[canvasRows * canvasCols];
+        double[] bestCost = new double[canvasRows * canvasCols];
+        boolean[] stale = new boolean[canvasRows * canvasCols];
+        Arrays.fill(bestPiece, -1);
+        List<Integer> frontier = new ArrayList<>();
+        boolean[] inFrontier = new boolean[canvasRows * canvasCols];
+
+        // The kept cells go where the window can still grow from them in every direction as far as it has to
+        int[] bounds = {rows, -1, cols, -1}; // minRow, maxRow, minCol, maxCol of placed cells
+        for (int cell = 0; cell < n; cell++) {
+            if (keep[cell]) {
+                bounds[0] = Math.min(bounds[0], cell / cols);
+                bounds[1] = Math.max(bounds[1], cell / cols);
+                bounds[2] = Math.min(bounds[2], cell % cols);
+                bounds[3] = Math.max(bounds[3], cell % cols);
+            }
+        }
+        int shiftRow = rows - 1 - bounds[1], shiftCol = cols - 1 - bounds[3];
+        bounds[0] += shiftRow;
+        bounds[1] += shiftRow;
+        bounds[2] += shiftCol;
+        bounds[3] += shiftCol;
+        int placed = 0;
+        for (int cell = 0; cell < n; cell++) {
+            if (keep[cell]) {
+                int at = (cell / cols + shiftRow) * canvasCols + cell % cols + shiftCol;
+                placedPiece[at] = indices[cell];
+                placedOrientation[at] = orientations[cell];
+                used[indices[cell]] = true;
+                placed++;
+            }
+        }
+        for (int at = 0; at < placedPiece.length; at++) {
+            if (placedPiece[at] != -1) {
+                addNeighbours(at, canvasRows, canvasCols, placedPiece, frontier, inFrontier, stale);
+            }
+        }
+
+        while (placed < n) {
+            int bestCell = -1;
+            for (int cell : frontier) {
+                if (placedPiece[cell] != -1 || !fitsBounds(cell, canvasCols, bounds)) continue;
+                if (stale[cell] || (bestPiece[cell] != -1 && used[bestPiece[cell]])) {
+                    evaluate(cell, canvasRows, canvasCols, placedPiece, placedOrientation, used, bestPiece, bestOrientation, bestCost);
+                    stale[cell] = false;
+                }
+                if (bestPiece[cell] != -1 && (bestCell == -1 || bestCost[cell] < bestCost[bestCell])) {
+                    bestCell = cell;
+                }
+            }
+            placedPiece[bestCell] = bestPiece[bestCell];
+            placedOrientation[bestCell] = bestOrientation[bestCell];
+            used[bestPiece[bestCell]] = true;
+            placed++;
+            int row = bestCell / canvasCols, col = bestCell % canvasCols;
+            bounds[0] = Math.min(bounds[0], row);
+            bounds[1] = Math.max(bounds[1], row);
+            bounds[2] = Math.min(bounds[2], col);
+            bounds[3] = Math.max(bounds[3], col);
+            frontier.removeIf(cell -> placedPiece[cell] != -1);
+            addNeighbours(bestCell, canvasRows, canvasCols, placedPiece, frontier, inFrontier, stale);
+        }
+
+        // Cuts the placed rectangle out of the canvas
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int cell = (bounds[0] + row) * canvasCols + bounds[2] + col;
+                indices[row * cols + col] = placedPiece[cell];
+                orientations[row * cols + col] = placedOrientation[cell];
+            }
+        }
+    }
+
+    // Pieces to start from -> those whose best neighbour fits much better than their second best, the surest pairs on the board
+    int[] seedPieces() {
+        double[] confidence = new double[n];
+        Arrays.fill(confidence, Double.MAX_VALUE);
+        for (int slot = 0; slot < n * 4; slot++) {
+            int first = candidates[slot * CANDIDATES];
+            if (first < 0) continue;
+            long firstScore = dissimilarity(slot / 4, slot % 4, first / 8, first / 2 % 4, (first & 1) == 1, Long.MAX_VALUE);
+            confidence[slot / 4] = Math.min(confidence[slot / 4], (firstScore + 1.0) / (runnerUp[slot] + 1.0));
+        }
+        return IntStream.range(0, n).boxed()
+                .sorted(Comparator.comparingDouble(piece -> confidence[piece]))
+                .limit(SEEDS)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    // Whether placing a piece in the cell keeps the layout within rows x cols
+    boolean fitsBounds(int cell, int canvasCols, int[] bounds) {
+        int row = cell / canvasCols, col = cell % canvasCols;
+        return Math.max(bounds[1], row) - Math.min(bounds[0], row) < rows
+                && Math.max(bounds[3], col) - Math.min(bounds[2], col) < cols;
+    }
+
+    // Adds the empty cells around a placed cell to the frontier and marks them for re-evaluation
+    void addNeighbours(int cell, int canvasRows, int canvasCols, int[] placedPiece, List<Integer> frontier, boolean[] inFrontier, boolean[] stale) {
+        int row = cell / canvasCols, col = cell % canvasCols;
+        int[][] around = {{row - 1, col}, {row, col + 1}, {row + 1, col}, {row, col - 1}};
+        for (int[] next : around) {
+            if (next[0] < 0 || next[0] >= canvasRows || next[1] < 0 || next[1] >= canvasCols) continue;
+            int neighbour = next[0] * canvasCols + next[1];
+            if (placedPiece[neighbour] != -1) continue;
+            stale[neighbour] = true;
+            if (!inFrontier[neighbour]) {
+                inFrontier[neighbour] = true;
+                frontier.add(neighbour);
+            }
+        }
+    }
+
+    // Finds the unused piece and orientation that fits best into an empty cell, given the pieces already around it
+    void evaluate(int cell, int canvasRows, int canvasCols, int[] placedPiece, int[] placedOrientation, boolean[] used,
+                  int[] bestPiece, int[] bestOrientation, double[] bestCost) {
+        int row = cell / canvasCols, col = cell % canvasCols;
+        int[] neighbours = new int[4]; // Side of the cell -> placed neighbour cell, or -1
+        int[][] around = {{row - 1, col}, {row, col + 1}, {row + 1, col}, {row, col - 1}};
+        for (int side = 0; side < 4; side++) {
+            int r = around[side][0], c = around[side][1];
+            neighbours[side] = r < 0 || r >= canvasRows || c < 0 || c >= canvasCols || placedPiece[r * canvasCols + c] == -1
+                    ? -1 : r * canvasCols + c;
+        }
+        bestPiece[cell] = -1;
+        bestCost[cell] = Double.MAX_VALUE;
+
+        // Candidates suggested by the edges of the neighbours facing this cell
+        for (int side = 0; side < 4; side++) {
+            int neighbour = neighbours[side];
+            if (neighbour == -1) continue;
+            int facing = (side + 2) & 3; // Side of the neighbour that touches this cell
+            int edge = edgeOnSide(placedOrientation[neighbour], facing);
+            boolean neighbourFlipped = Orientation.isFlipped(placedOrientation[neighbour]);
+            int slot = placedPiece[neighbour] * 4 + edge;
+            for (int k = 0; k < CANDIDATES; k++) {
+                int candidate = candidates[slot * CANDIDATES + k];
+                if (candidate < 0 || used[candidate / 8]) continue;
+                boolean flipped = (candidate & 1) == 1 ? neighbourFlipped : !neighbourFlipped;
+                int orientation = orientationShowing(candidate / 2 % 4, side, flipped);
+                consider(cell, candidate / 8, orientation, neighbours, placedPiece, placedOrientation, bestPiece, bestOrientation, bestCost);
+            }
+        }
+
+        // Every suggested piece is already used, so every unused piece is tried
+        if (bestPiece[cell] == -1) {
+            for (int piece = 0; piece < n; piece++) {
+                if (used[piece]) continue;
+                for (int orientation = 0; orientation < Orientation.COUNT; orientation++) {
+                    consider(cell, piece, orientation, neighbours, placedPiece, placedOrientation, bestPiece, bestOrientation, bestCost);
+                }
+            }
+        }
+    }
+
+    // Scores one piece and orientation against every placed neighbour of a cell, keeping it when it is the best so far
+    // Each fit is measured against the runner-up of the neighbour's edge, so distinct matches are placed before flat areas
+    // where many pieces fit about as well
+    void consider(int cell, int piece, int orientation, int[] neighbours, int[] placedPiece, int[] placedOrientation,
+                  int[] bestPiece, int[] bestOrientation, double[] bestCost) {
+        if (!allowQuarterTurns && (Orientation.quarterTurns(orientation) & 1) == 1) {
+            return;
+        }
+        double total = 0;
+        int count = 0;
+        for (int side = 0; side < 4; side++) {
+            int neighbour = neighbours[side];
+            if (neighbour == -1) continue;
+            int edge = edgeOnSide(placedOrientation[neighbour], (side + 2) & 3);
+            long fit = fit(piece, orientation, side, placedPiece[neighbour], placedOrientation[neighbour]);
+            total += (fit + 1.0) / (runnerUp[placedPiece[neighbour] * 4 + edge] + 1.0);
+            count++;
+        }
+        double cost = total / count;
+        if (cost < bestCost[cell]) {
+            bestCost[cell] = cost;
+            bestPiece[cell] = piece;
+            bestOrientation[cell] = orientation;
+        }
+    }
+
+    // Greedy growing can lock in a wrong piece early, so this repairs the finished layout by re-orienting single pieces
+    // and swapping a piece with the ones its neighbours would rather have, keeping every change that lowers the cost
+    void refine(int[] indices, int[] orientations) {
+        int[] cellOf = new int[n]; // Piece -> cell it is in
+        for (int cell = 0; cell < n; cell++) {
+            cellOf[indices[cell]] = cell;
+        }
+        for (int pass = 0; pass < REFINE_PASSES; pass++) {
+            boolean improved = false;
+            for (int cell = 0; cell < n; cell++) {
+                // Best orientation for the piece where it is
+                long current = localCost(cell, indices, orientations);
+                int kept = orientations[cell];
+                for (int orientation = 0; orientation < Orientation.COUNT; orientation++) {
+                    if (orientation == kept || (!allowQuarterTurns && (orientation & 1) == 1)) continue;
+                    orientations[cell] = orientation;
+                    long cost = localCost(cell, indices, orientations);
+                    if (cost < current) {
+                        current = cost;
+                        kept = orientation;
+                        improved = true;
+                    }
+                }
+                orientations[cell] = kept;
+
+                // Pieces the neighbours of this cell fit best with, each tried in this cell
+                int row = cell / cols, col = cell % cols;
+                for (int side = 0; side < 4; side++) {
+                    int neighbour = neighbourCell(row, col, side);
+                    if (neighbour == -1) continue;
+                    int slot = indices[neighbour] * 4 + edgeOnSide(orientations[neighbour], (side + 2) & 3);
+                    boolean neighbourFlipped = Orientation.isFlipped(orientations[neighbour]);
+                    for (int k = 0; k < CANDIDATES; k++) {
+                        int candidate = candidates[slot * CANDIDATES + k];
+                        if (candidate < 0 || candidate / 8 == indices[cell]) continue;
+                        boolean flipped = (candidate & 1) == 1 ? neighbourFlipped : !neighbourFlipped;
+                        int orientation = orientationShowing(candidate / 2 % 4, side, flipped);
+                        if (!allowQuarterTurns && (orientation & 1) == 1) continue;
+                        if (trySwap(cell, cellOf[candidate / 8], orientation, indices, orientations, cellOf)) {
+                            improved = true;
+                        }
+                    }
+                }
+            }
+            if (!improved) {
+                break;
+            }
+        }
+    }
+
+    // Growing inside a rows x cols window can wrap part of the picture round to the wrong side, or lay it out along the
+    // wrong diagonal, and no swap of two pieces fixes that. This tries the whole layout shifted round by rows and by columns,
+    // and the cells mirrored or turned with every piece kept as it is, keeping whatever fits better
+    boolean repairGlobal(int[] indices, int[] orientations) {
+        long best = totalCost(indices, orientations);
+        boolean repaired = false;
+        int[] movedIndices = new int[n];
+        int[] movedOrientations = new int[n];
+        int repairs = (rows - 1) + (cols - 1) + (rows == cols ? Orientation.COUNT - 1 : 3);
+        for (int pass = 0; pass < REFINE_PASSES; pass++) {
+            int bestRepair = -1; // The repair that lowers the cost most, applied once all were tried
+            for (int repair = 0; repair < repairs; repair++) {
+                for (int cell = 0; cell < n; cell++) {
+                    int to = repairedCell(repair, cell / cols, cell % cols);
+                    movedIndices[to] = indices[cell];
+                    movedOrientations[to] = orientations[cell];
+                }
+                long cost = totalCost(movedIndices, movedOrientations);
+                if (cost < best) {
+                    best = cost;
+                    bestRepair = repair;
+                }
+            }
+            if (bestRepair == -1) {
+                break;
+            }
+            for (int cell = 0; cell < n; cell++) {
+                int to = repairedCell(bestRepair, cell / cols, cell % cols);
+                movedIndices[to] = indices[cell];
+                movedOrientations[to] = orientations[cell];
+            }
+            System.arraycopy(movedIndices, 0, indices, 0, n);
+            System.arraycopy(movedOrientations, 0, orientations, 0, n);
+            repaired = true;
+        }
+        return repaired;
+    }
+
+    // Cell a grid position moves to in one of the repairs tried by repairGlobal, numbered in the order they are listed there
+    int repairedCell(int repair, int row, int col) {
+        if (repair < rows - 1) {
+            return (row + repair + 1) % rows * cols + col; // Every row moved down
+        }
+        repair -= rows - 1;
+        if (repair < cols - 1) {
+            return row * cols + (col + repair + 1) % cols; // Every column moved right
+        }
+        repair -= cols - 1;
+        int global = rows == cols ? repair + 1 : new int[]{2, Orientation.FLIPPED, Orientation.FLIPPED | 2}[repair];
+        return transformedCell(row, col, global); // A board that is not square can only be mirrored or turned 180 degrees
+    }
+
+    // When a part of the picture grew against the edge of the window, the rest of it was squeezed in wherever room was left
+    // This keeps the biggest block of sure cells, lays every other piece again around it with the window free to move, and
+    // keeps the result when it fits better overall
+    boolean regrow(int[] indices, int[] orientations) {
+        boolean[] sure = sure(indices, orientations);
+        boolean[] block = new boolean[n];
+        int blockSize = 0;
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start++) {
+            if (!sure[start] || seen[start]) continue;
+            // Flood fill of one block of sure cells
+            boolean[] found = new boolean[n];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(start);
+            seen[start] = true;
+            int size = 0;
+            while (!queue.isEmpty()) {
+                int cell = queue.poll();
+                found[cell] = true;
+                size++;
+                for (int side = 0; side < 4; side++) {
+                    int neighbour = neighbourCell(cell / cols, cell % cols, side);
+                    if (neighbour != -1 && sure[neighbour] && !seen[neighbour]) {
+                        seen[neighbour] = true;
+                        queue.add(neighbour);
+                    }
+                }
+            }
+            if (size > blockSize) {
+                blockSize = size;
+                block = found;
+            }
+        }
+        if (blockSize == 0 || blockSize == n) {
+            return false; // Nothing to start from, or nothing to repair
+        }
+        int[] newIndices = indices.clone();
+        int[] newOrientations = orientations.clone();
+        fill(newIndices, newOrientations, block);
+        refine(newIndices, newOrientations);
+        if (totalCost(newIndices, newOrientations) >= totalCost(indices, orientations)) {
+            return false;
+        }
+        System.arraycopy(newIndices, 0, indices, 0, n);
+        System.arraycopy(newOrientations, 0, orientations, 0, n);
+        return true;
+    }
+
+    // Cells whose every neighbour is among the two best fits of the edge they share, seen from either side
+    // A wrong piece rarely fits all of its neighbours that well, so these are the cells a hint can rely on
+    boolean[] sure(int[] indices, int[] orientations) {
+        boolean[] sure = new boolean[n];
+        for (int cell = 0; cell < n; cell++) {
+            sure[cell] = true;
+            for (int side = 0; side < 4 && sure[cell]; side++) {
+                int neighbour = neighbourCell(cell / cols, cell % cols, side);
+                if (neighbour == -1) continue;
+                long fit = fit(indices[cell], orientations[cell], side, indices[neighbour], orientations[neighbour]);
+                int edge = edgeOnSide(orientations[cell], side);
+                int facing = edgeOnSide(orientations[neighbour], (side + 2) & 3);
+                sure[cell] = fit <= runnerUp[indices[cell] * 4 + edge] && fit <= runnerUp[indices[neighbour] * 4 + facing];
+            }
+        }
+        return sure;
+    }
+
+    // Swaps the pieces of two cells, the incoming piece taking the given orientation, and undoes it unless the cost drops
+    boolean trySwap(int cell, int other, int orientation, int[] indices, int[] orientations, int[] cellOf) {
+        long before = localCost(cell, indices, orientations) + localCost(other, indices, orientations)
+                - sharedCost(cell, other, indices, orientations);
+        int piece = indices[cell], pieceOrientation = orientations[cell];
+        int otherOrientation = orientations[other];
+        indices[cell] = indices[other];
+        orientations[cell] = orientation;
+        indices[other] = piece;
+        orientations[other] = pieceOrientation;
+        long after = localCost(cell, indices, orientations) + localCost(other, indices, orientations)
+                - sharedCost(cell, other, indices, orientations);
+        if (after < before) {
+            cellOf[indices[cell]] = cell;
+            cellOf[piece] = other;
+            return true;
+        }
+        indices[other] = indices[cell];
+        orientations[other] = otherOrientation;
+        indices[cell] = piece;
+        orientations[cell] = pieceOrientation;
+        return false;
+    }
+
+    // Cell on a side of a grid position, or -1 past the border
+    int neighbourCell(int row, int col, int side) {
+        switch (side) {
+            case 0:
+                return row > 0 ? (row - 1) * cols + col : -1;
+            case 1:
+                return col + 1 < cols ? row * cols + col + 1 : -1;
+            case 2:
+                return row + 1 < rows ? (row + 1) * cols + col : -1;
+            default:
+                return col > 0 ? row * cols + col - 1 : -1;
+        }
+    }
+
+    // How badly a cell fits with all of its neighbours
+    long localCost(int cell, int[] indices, int[] orientations) {
+        long total = 0;
+        for (int side = 0; side < 4; side++) {
+            int neighbour = neighbourCell(cell / cols, cell % cols, side);
+            if (neighbour == -1) continue;
+            total += fit(indices[cell], orientations[cell], side, indices[neighbour], orientations[neighbour]);
+        }
+        return total;
+    }
+
+    // How badly two cells fit with each other, 0 when they are not next to each other
+    long sharedCost(int cell, int other, int[] indices, int[] orientations) {
+        for (int side = 0; side < 4; side++) {
+            if (neighbourCell(cell / cols, cell % cols, side) == other) {
+                return fit(indices[cell], orientations[cell], side, indices[other], orientations[other]);
+            }
+        }
+        return 0;
+    }
+
+    // Sum of how badly every pair of neighbouring cells fits
+    long totalCost(int[] indices, int[] orientations) {
+        long total = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int cell = row * cols + col;
+                if (col + 1 < cols) {
+                    total += fit(indices[cell], orientations[cell], 1, indices[cell + 1], orientations[cell + 1]);
+                }
+                if (row + 1 < rows) {
+                    total += fit(indices[cell], orientations[cell], 2, indices[cell + cols], orientations[cell + cols]);
+                }
+            }
+        }
+        return total;
+    }
+
+    // Edges alone cannot tell a layout from the same layout turned or mirrored as a whole, so this picks the version that
+    // shows the most pieces untransformed, which is how the pieces were cut out of the original image
+    void normalize(int[] indices, int[] orientations) {
+        int bestGlobal = 0, bestUpright = -1;
+        for (int global = 0; global < Orientation.COUNT; global++) {
+            if ((Orientation.quarterTurns(global) & 1) == 1 && rows != cols) continue; // Would not fit rows x cols
+            int upright = 0;
+            for (int orientation : orientations) {
+                if (compose(global, orientation) == 0) upright++;
+            }
+            if (upright > bestUpright) {
+                bestUpright = upright;
+                bestGlobal = global;
+            }
+        }
+        if (bestGlobal == 0) {
+            return;
+        }
+        int[] newIndices = new int[n];
+        int[] newOrientations = new int[n];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int to = transformedCell(row, col, bestGlobal);
+                newIndices[to] = indices[row * cols + col];
+                newOrientations[to] = compose(bestGlobal, orientations[row * cols + col]);
+            }
+        }
+        System.arraycopy(newIndices, 0, indices, 0, n);
+        System.arraycopy(newOrientations, 0, orientations, 0, n);
+    }
+
+    // Cell a grid position ends up in when the whole layout is flipped and turned like an orientation
+    int transformedCell(int row, int col, int global) {
+        // Doubled coordinates around the center, so turning and mirroring stay on whole numbers
+        int u = 2 * col - (cols - 1), v = 2 * row - (rows - 1);
+        if (Orientation.isFlipped(global)) u = -u;
+        for (int turn = 0; turn < Orientation.quarterTurns(global); turn++) {
+            int t = u;
+            u = -v;
+            v = t;
+        }
+        int newCol = (u + cols - 1) / 2, newRow = (v + rows - 1) / 2;
+        return newRow * cols + newCol;
+    }
+
+    // Orientation of applying orientation first and then outer, both flip first and then rotate clockwise
+    static int compose(int outer, int orientation) {
+        int outerTurns = Orientation.quarterTurns(outer), turns = Orientation.quarterTurns(orientation);
+        int combinedTurns = (outerTurns + (Orientation.isFlipped(outer) ? -turns : turns)) & 3;
+        boolean flipped = Orientation.isFlipped(outer) != Orientation.isFlipped(orientation);
+        return combinedTurns | (flipped ? Orientation.FLIPPED : 0);
+    }
+
+    // Moves that turn the board into the layout -> swaps bring each piece to its cell, then flips and turns fix its orientation
+    public static List<Move> movesTo(PuzzleBoard board, Solution solution) {
+        int cols = board.getCols();
+        List<ImagePiece> current = new ArrayList<>(board.getPieces());
+        Map<ImagePiece, Integer> where = new IdentityHashMap<>();
+        for (int i = 0; i < current.size(); i++) {
+            where.put(current.get(i), i);
+        }
+        List<Move> moves = new ArrayList<>();
+        for (int cell = 0; cell < current.size(); cell++) {
+            ImagePiece target = solution.pieces[cell];
+            int from = where.get(target);
+            if (from != cell) {
+                moves.add(Move.swap(cell / cols, cell % cols, from / cols, from % cols));
+                ImagePiece displaced = current.get(cell);
+                current.set(from, displaced);
+                current.set(cell, target);
+                where.put(displaced, from);
+                where.put(target, cell);
+            }
+            moves.addAll(turns(cell / cols, cell % cols, target.orientationIndex(), solution.orientations[cell]));
+        }
+        return moves;
+    }
+
+    // Flips and turns that take the piece in a cell from one orientation to another, the flip first
+    static List<Move> turns(int row, int col, int orientation, int wanted) {
+        List<Move> moves = new ArrayList<>();
+        if (Orientation.isFlipped(orientation) != Orientation.isFlipped(wanted)) {
+            moves.add(Move.flip(row, col));
+        }
+        int turns = (Orientation.quarterTurns(wanted) - Orientation.quarterTurns(orientation)) & 3;
+        if (turns == 3) {
+            moves.add(Move.rotateLeft(row, col));
+        } else {
+            for (int turn = 0; turn < turns; turn++) {
+                moves.add(Move.rotateRight(row, col));
+            }
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,128 @@
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public class RequestLimiter {
+    // Keeps calls to the API within what it accepts -> a token bucket spaces them out, a fixed # of permits bounds how many
+    // are in flight, and a bounded queue holds the rest. Once the queue is full calls fail right away instead of piling up
+    double ratePerNano; // Tokens added to the bucket per nanosecond
+    double burst; // Most tokens the bucket holds, calls sent back to back after a quiet period
+    int maxInFlight; // Calls sent at the same time
+    int maxQueued; // Calls waiting for a permit, more than this are refused
+    Executor executor; // Runs the calls once their turn comes
+    double tokens; // Tokens in the bucket, negative when calls were promised tokens that are still to come
+    long refilledAt; // nanoTime the bucket was last topped up
+    long pausedUntil; // nanoTime no call is sent before, set when the API asks to back off
+    int inFlight; // Calls holding a permit
+    ArrayDeque<Runnable> queue = new ArrayDeque<>(); // Calls waiting for a permit, oldest first
+
+    // The constructor, starting with a full bucket
+    RequestLimiter(double perSecond, int burst, int maxInFlight, int maxQueued, Executor executor) {
+        this.ratePerNano = perSecond / 1e9;
+        this.burst = burst;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.executor = executor;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+        this.pausedUntil = refilledAt;
+    }
+
+    // Sends the call once a permit and a token are free, the permit is held until the future it returns completes
+    // Fails with OVERLOADED when the queue is full. A call cancelled while it waits is never sent
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Runnable start = () -> {
+            if (result.isDone()) {
+                release(); // Cancelled while it was waiting, no token is spent on it
+                return;
+            }
+            long delay = reserve();
+            Executor later = delay == 0 ? executor : CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS, executor);
+            later.execute(() -> run(call, result));
+        };
+        synchronized (this) {
+            if (inFlight < maxInFlight) {
+                inFlight++;
+            } else if (queue.size() < maxQueued) {
+                queue.add(start);
+                // A call cancelled while it waits leaves the queue right away, instead of holding its place until a permit frees
+                result.whenComplete((value, error) -> {
+                    synchronized (this) {
+                        queue.remove(start); // No-op once a permit started it
+                    }
+                });
+                return result;
+            } else {
+                Metrics.API_OVERLOADED.increment();
+                return CompletableFuture.failedFuture(new OpenAIException(OpenAIException.Kind.OVERLOADED,
+                        "Too many image requests are waiting, try again later", null));
+            }
+        }
+        start.run();
+        return result;
+    }
+
+    // Sends a call that holds a permit, and hands the permit on once it is done
+    <T> void run(Supplier<CompletableFuture<T>> call, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            release(); // Cancelled while it was waiting
+            return;
+        }
+        CompletableFuture<T> sent;
+        try {
+            sent = call.get();
+        } catch (RuntimeException e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<T> pending = sent;
+        result.whenComplete((value, error) -> pending.cancel(true)); // No-op once the call completed
+        pending.whenComplete((value, error) -> {
+            release();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        });
+    }
+
+    // Gives a permit back, starting the oldest waiting call with it
+    void release() {
+        Runnable next;
+        synchronized (this) {
+            next = queue.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.run(); // The permit passes straight to the next call
+    }
+
+    // Takes a token and returns how long to wait until it is really there, later calls then line up behind it
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * ratePerNano);
+        refilledAt = now;
+        long wait = Math.max(0, pausedUntil - now);
+        tokens -= 1;
+        if (tokens < 0) {
+            wait = Math.max(wait, (long) Math.ceil(-tokens / ratePerNano));
+        }
+        return wait;
+    }
+
+    // Sends no call for the given time, used when the API answers with Retry-After
+    public synchronized void pause(Duration duration) {
+        pausedUntil = Math.max(pausedUntil, System.nanoTime() + duration.toNanos());
+    }
+
+    // # of calls waiting for a permit
+    public synchronized int queued() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SessionManager {
+    Map<Long, PuzzleSession> sessions = new ConcurrentHashMap<>(); // Session id -> session
+    AtomicLong nextId = new AtomicLong(1); // Id handed to the next session
+    Duration idleTimeout; // Sessions without a move for this long are closed
+    ScheduledExecutorService scheduler; // One thread sweeps every session, instead of one timer per board
+    Path logDir; // Directory every session streams its move log into, null keeps the logs in memory
+
+    // The constructor, sweeping idle sessions once per sweep interval
+    SessionManager(Duration idleTimeout, Duration sweepInterval) {
+        this.idleTimeout = idleTimeout;
+        String dir = System.getProperty("puzzle.moveLog.dir");
+        this.logDir = dir == null ? null : Paths.get(dir);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "puzzle-sessions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::sweep, sweepInterval.toMillis(), sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    // Starts a session on a new headless board, stored compactly since no image is needed to play
+    public PuzzleSession create(int rows, int cols) {
+        return create(new PackedBoard(rows, cols));
+    }
+
+    // Starts a session on an existing board
+    public PuzzleSession create(BoardState board) {
+        long id = nextId.getAndIncrement();
+        MoveLog log = null;
+        if (logDir != null) {
+            try {
+                Files.createDirectories(logDir);
+                log = MoveLog.create(logFile(id), board);
+            } catch (IOException e) {
+                e.printStackTrace(); // The session still works, its moves are only kept in memory
+            }
+        }
+        PuzzleSession session = new PuzzleSession(id, board, log != null ? log : new MoveLog(board));
+        sessions.put(session.getId(), session);
+        return session;
+    }
+
+    // Brings back a session after a crash or restart -> the board is rebuilt from the seed and moves in its log file,
+    // and new moves keep being appended to the same file. The session keeps the id in the file name, so no later session
+    // is handed that id and starts a new log over the recovered one
+    public PuzzleSession recover(Path file) throws IOException {
+        MoveLog log = MoveLog.load(file);
+        if (!log.isReplayable()) {
+            log.close();
+            throw new IOException("Move log has no seed to rebuild its board from: " + file);
+        }
+        long id = idOf(file);
+        if (id < 0) {
+            id = nextId.getAndIncrement();
+        } else {
+            nextId.accumulateAndGet(id + 1, Math::max);
+        }
+        PackedBoard board = new PackedBoard(log.rows, log.cols);
+        log.replay(board);
+        PuzzleSession session = new PuzzleSession(id, board, log);
+        if (sessions.putIfAbsent(id, session) != null) {
+            log.close();
+            throw new IOException("Session " + id + " is already open: " + file);
+        }
+        return session;
+    }
+
+    // Id of the session a log file belongs to, -1 when the file is not named like a session log
+    static long idOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("session-") || !name.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            long id = Long.parseLong(name.substring("session-".length(), name.length() - ".log".length()));
+            return id > 0 ? id : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // File the move log of a session is streamed into
+    Path logFile(long id) {
+        return logDir.resolve("session-" + id + ".log");
+    }
+
+    // Returns the session with the given id, or null when it does not exist or was closed
+    public PuzzleSession get(long id) {
+        return sessions.get(id);
+    }
+
+    // Applies a move to a session, returns false when the session does not exist or ignored the move
+    public boolean apply(long id, Move move) {
+        PuzzleSession session = sessions.get(id);
+        return session != null && session.apply(move);
+    }
+
+    // Closes a session
+    public PuzzleSession remove(long id) {
+        PuzzleSession session = sessions.remove(id);
+        if (session != null) {
+            session.close();
+        }
+        return session;
+    }
+
+    // Number of open sessions
+    public int size() {
+        return sessions.size();
+    }
+
+    // Closes every session that has been idle for longer than the idle timeout
+    void sweep() {
+        long now = System.nanoTime();
+        long timeout = idleTimeout.toNanos();
+        sessions.values().removeIf(session -> {
+            if (session.getIdleNanos(now) <= timeout) {
+                return false;
+            }
+            session.close();
+            return true;
+        });
+    }
+
+    // Stops the sweeper thread and closes every session
+    public void shutdown() {
+        scheduler.shutdownNow();
+        sessions.values().forEach(PuzzleSession::close);
+        sessions.clear();
+    }
+}
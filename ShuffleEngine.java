@@ -0,0 +1,130 @@
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class ShuffleEngine {
+    // Turns a seed into a shuffled layout, the same seed, size and difficulty always give the same layout on every machine
+
+    // How hard a shuffled board is -> how many pieces leave their cell and how likely a piece is turned or flipped
+    public enum Difficulty {
+        EASY(0.25, 0.0, 0.0), // A quarter of the pieces out of place, none turned or flipped
+        MEDIUM(0.5, 0.5, 0.0), // Half of the pieces out of place, half of them turned
+        HARD(1.0, 0.75, 0.5); // Every piece out of place, turns and flips as random as they can be
+
+        final double displaced; // Fraction of the cells whose piece is moved somewhere else
+        final double turnChance; // Chance a piece is turned, the turn itself is 90, 180 or 270 degrees with equal odds
+        final double flipChance; // Chance a piece is flipped
+
+        Difficulty(double displaced, double turnChance, double flipChance) {
+            this.displaced = displaced;
+            this.turnChance = turnChance;
+            this.flipChance = flipChance;
+        }
+    }
+
+    static final Difficulty DEFAULT_DIFFICULTY = difficulty(System.getProperty("puzzle.difficulty"));
+    static final Long FIXED_SEED = Long.getLong("puzzle.seed"); // Replays one puzzle everywhere when set, null otherwise
+
+    // A shuffled board -> which piece sits in each cell and how it is turned, pieces are identified by the cell they belong in
+    public static final class Layout {
+        final long seed; // Seed the layout was made from
+        final Difficulty difficulty; // Profile the layout was made with
+        final int[] permutation; // Cell -> piece in that cell
+        final byte[] orientations; // Cell -> orientation of the piece in that cell, see Orientation
+
+        Layout(long seed, Difficulty difficulty, int[] permutation, byte[] orientations) {
+            this.seed = seed;
+            this.difficulty = difficulty;
+            this.permutation = permutation;
+            this.orientations = orientations;
+        }
+
+        // Fewest moves that solve the layout, see ShuffleEngine.estimate
+        public int estimate() {
+            return ShuffleEngine.estimate(permutation, orientations);
+        }
+    }
+
+    private ShuffleEngine() {
+    }
+
+    // Reads a difficulty by name, anything unknown falls back to HARD instead of keeping every board from being shuffled
+    static Difficulty difficulty(String name) {
+        if (name == null) {
+            return Difficulty.HARD;
+        }
+        try {
+            return Difficulty.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown puzzle.difficulty \"" + name + "\", using HARD");
+            return Difficulty.HARD;
+        }
+    }
+
+    // Seed for a new board -> the fixed seed when one is configured, a random one otherwise
+    public static long nextSeed() {
+        return FIXED_SEED != null ? FIXED_SEED : ThreadLocalRandom.current().nextLong();
+    }
+
+    // Builds the layout of a board with the given # of pieces from a seed
+    public static Layout layout(int size, long seed, Difficulty difficulty) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] permutation = new int[size];
+        for (int i = 0; i < size; i++) {
+            permutation[i] = i;
+        }
+
+        // Picks the cells that are displaced, a partial Fisher-Yates leaves a random subset at the front
+        int displaced = (int) Math.round(difficulty.displaced * size);
+        if (displaced == 1) {
+            displaced = size > 1 ? 2 : 0; // One piece cannot be out of place on its own
+        }
+        int[] cells = permutation.clone();
+        for (int i = 0; i < displaced; i++) {
+            int j = i + random.nextInt(size - i);
+            int cell = cells[i];
+            cells[i] = cells[j];
+            cells[j] = cell;
+        }
+
+        // Sattolo's algorithm over the picked cells, so they form one cycle and none of them keeps its own piece
+        for (int i = displaced - 1; i > 0; i--) {
+            int j = random.nextInt(i);
+            int piece = permutation[cells[i]];
+            permutation[cells[i]] = permutation[cells[j]];
+            permutation[cells[j]] = piece;
+        }
+
+        // One turn and one flip draw per piece, the turn never cancels itself out the way separate left and right draws did
+        byte[] orientations = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int orientation = random.nextDouble() < difficulty.turnChance ? 1 + random.nextInt(3) : 0;
+            if (random.nextDouble() < difficulty.flipChance) {
+                orientation = Orientation.flip(orientation);
+            }
+            orientations[i] = (byte) orientation;
+        }
+        return new Layout(seed, difficulty, permutation, orientations);
+    }
+
+    // Fewest moves that solve a layout -> every cycle of k misplaced pieces takes k - 1 swaps, and every piece takes
+    // one move per quarter turn it is off (two at most, turning the shorter way) plus one if it is flipped
+    public static int estimate(int[] permutation, byte[] orientations) {
+        int size = permutation.length;
+        long[] visited = new long[(size + 63) >>> 6];
+        int cycles = 0;
+        for (int start = 0; start < size; start++) {
+            if ((visited[start >>> 6] & 1L << start) != 0) continue;
+            cycles++;
+            for (int cell = start; (visited[cell >>> 6] & 1L << cell) == 0; cell = permutation[cell]) {
+                visited[cell >>> 6] |= 1L << cell;
+            }
+        }
+        int moves = size - cycles;
+        for (byte orientation : orientations) {
+            int turns = Orientation.quarterTurns(orientation);
+            moves += (turns == 3 ? 1 : turns) + (Orientation.isFlipped(orientation) ? 1 : 0);
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,108 @@
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.List;
+
+public class TileAtlas {
+    // Every tile scaled to the size it is shown at, packed into one image at the cell it belongs in
+    // Drawing a piece is then a 1:1 blit out of the atlas, its rotation and flip applied as a transform on the way
+    int rows; // # of rows of tiles
+    int cols; // # of columns of tiles
+    int tileSize; // Width and height of one tile in the atlas, the box size of the board
+    BufferedImage master; // The atlas in memory, always there so the accelerated copy can be restored from it
+    VolatileImage accelerated; // Copy of the atlas in video memory, null when headless or without a screen configuration
+    GraphicsConfiguration config; // Screen the accelerated copy belongs to
+
+    // The constructor, scaling every piece into its slot once, config may be null to keep the atlas in memory only
+    TileAtlas(List<ImagePiece> pieces, int rows, int cols, int tileSize, GraphicsConfiguration config) {
+        this.rows = rows;
+        this.cols = cols;
+        this.tileSize = tileSize;
+        this.config = GraphicsEnvironment.isHeadless() ? null : config;
+        this.master = this.config != null
+                ? this.config.createCompatibleImage(cols * tileSize, rows * tileSize)
+                : new BufferedImage(cols * tileSize, rows * tileSize, BufferedImage.TYPE_INT_RGB);
+
+        // Scaled once with filtering, instead of with the cheapest filter on every frame
+        Graphics2D g2 = master.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        for (ImagePiece piece : pieces) {
+            if (piece.image != null) {
+                g2.drawImage(piece.image, piece.correctCol * tileSize, piece.correctRow * tileSize, tileSize, tileSize, null);
+            }
+        }
+        g2.dispose();
+        if (this.config != null) {
+            createAccelerated();
+        }
+    }
+
+    // Creates the video memory copy of the atlas and fills it from the one in memory
+    void createAccelerated() {
+        accelerated = config.createCompatibleVolatileImage(master.getWidth(), master.getHeight());
+        restore();
+    }
+
+    // Copies the atlas in memory into the video memory copy, needed whenever the video memory was lost
+    void restore() {
+        Graphics2D g2 = accelerated.createGraphics();
+        g2.drawImage(master, 0, 0, null);
+        g2.dispose();
+    }
+
+    // The image to blit from -> the video memory copy when it is usable, brought back first if it was lost
+    Image surface() {
+        if (accelerated == null) {
+            return master;
+        }
+        int status = accelerated.validate(config);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            accelerated.flush();
+            createAccelerated(); // The screen changed, a new copy has to be made for it
+        } else if (status == VolatileImage.IMAGE_RESTORED) {
+            restore();
+        }
+        return accelerated;
+    }
+
+    // Whether the video memory copy was lost while drawing from it, the caller then draws the frame again
+    boolean contentsLost() {
+        return accelerated != null && accelerated.contentsLost();
+    }
+
+    // Draws a piece at (x, y) -> its slot in the atlas blitted 1:1, flipped then rotated around its center
+    public void draw(Graphics2D g, ImagePiece piece, int x, int y) {
+        int sx = piece.correctCol * tileSize;
+        int sy = piece.correctRow * tileSize;
+        Image atlas = surface();
+        if (piece.rotation == 0 && !piece.flipped) {
+            g.drawImage(atlas, x, y, x + tileSize, y + tileSize, sx, sy, sx + tileSize, sy + tileSize, null);
+            return;
+        }
+        AffineTransform saved = g.getTransform();
+        g.translate(x + tileSize / 2.0, y + tileSize / 2.0);
+        if (piece.rotation != 0) {
+            g.rotate(Math.toRadians(piece.rotation));
+        }
+        if (piece.flipped) {
+            g.scale(-1, 1);
+        }
+        g.translate(-tileSize / 2.0, -tileSize / 2.0);
+        g.drawImage(atlas, 0, 0, tileSize, tileSize, sx, sy, sx + tileSize, sy + tileSize, null);
+        g.setTransform(saved);
+    }
+
+    // Releases the video memory copy
+    public void dispose() {
+        if (accelerated != null) {
+            accelerated.flush();
+            accelerated = null;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+public final class TileHash {
+    // A 64-bit fingerprint of how a tile looks -> 49 bits for which cells of a 7x7 grid stand out from the tile average, 15 bits
+    // for the average color. Different tiles can share a fingerprint, so it only picks the tiles worth comparing pixel by pixel
+    static final int GRID = 7; // Cells per side of the pattern grid
+    static final int DEADBAND = 6; // A cell has to be this much brighter or darker than the tile average to stand out (0-255 scale)
+
+    private TileHash() {
+    }
+
+    // Fingerprints of all 8 orientations of a tile, indexed like Orientation
+    // Tiles that look the same in two orientations (a patch of clear sky) get the same fingerprint for both
+    public static long[] compute(BufferedImage tile) {
+        int width = tile.getWidth();
+        int height = tile.getHeight();
+        int[] pixels = intPixels(tile);
+        int stride = pixelStride(tile);
+        int offset = pixelOffset(tile);
+
+        // Every pixel goes to the cell its center falls in -> (2x + 1) * GRID / (2 * width) never lands on a cell edge, so the
+        // cells are mirror images of each other at any tile size, and a symmetric tile gets a symmetric pattern
+        int[] cellX = new int[width];
+        for (int x = 0; x < width; x++) {
+            cellX[x] = (int) ((2L * x + 1) * GRID / (2L * width));
+        }
+        int[] cellY = new int[height];
+        for (int y = 0; y < height; y++) {
+            cellY[y] = (int) ((2L * y + 1) * GRID / (2L * height));
+        }
+
+        // Average luminance of each grid cell, plus the average color of the whole tile
+        long[] lumaSums = new long[GRID * GRID];
+        int[] counts = new int[GRID * GRID];
+        long red = 0, green = 0, blue = 0;
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            int cellRow = cellY[y] * GRID;
+            for (int x = 0; x < width; x++) {
+                int rgb = pixels[row + x];
+                int r = rgb >> 16 & 0xFF, g = rgb >> 8 & 0xFF, b = rgb & 0xFF;
+                lumaSums[cellRow + cellX[x]] += (r * 77 + g * 150 + b * 29) >> 8;
+                counts[cellRow + cellX[x]]++;
+                red += r;
+                green += g;
+                blue += b;
+            }
+        }
+        int[] cells = new int[GRID * GRID];
+        long totalLuma = 0;
+        int filled = 0; // Cells with pixels in them, a tile narrower than the grid leaves some empty
+        for (int i = 0; i < cells.length; i++) {
+            if (counts[i] > 0) {
+                cells[i] = (int) (lumaSums[i] / counts[i]);
+                totalLuma += cells[i];
+                filled++;
+            }
+        }
+        int mean = (int) (totalLuma / Math.max(filled, 1));
+        long samples = Math.max((long) width * height, 1);
+        long color = (red / samples >> 3) << 10 | (green / samples >> 3) << 5 | (blue / samples >> 3);
+
+        // Cells lighter or darker than the rest, so a dark detail on a light tile counts as much as a light one on a dark tile
+        // Flat areas stand out nowhere, so they look the same in every orientation
+        boolean[] light = new boolean[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            light[i] = counts[i] > 0 && Math.abs(cells[i] - mean) > DEADBAND;
+        }
+
+        long[] hashes = new long[Orientation.COUNT];
+        for (int orientation = 0; orientation < Orientation.COUNT; orientation++) {
+            hashes[orientation] = color << (GRID * GRID) | pattern(light, orientation);
+        }
+        return hashes;
+    }
+
+    // Packs the pattern as the tile is shown in an orientation -> flipped first, then rotated clockwise, like ImagePiece
+    static long pattern(boolean[] light, int orientation) {
+        int quarterTurns = Orientation.quarterTurns(orientation);
+        boolean flipped = Orientation.isFlipped(orientation);
+        long bits = 0;
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                // Walks back from the shown cell (x, y) to the cell of the untransformed tile
+                int sx = x, sy = y;
+                for (int turn = 0; turn < quarterTurns; turn++) {
+                    int t = sx;
+                    sx = sy;
+                    sy = GRID - 1 - t;
+                }
+                if (flipped) {
+                    sx = GRID - 1 - sx;
+                }
+                if (light[sy * GRID + sx]) {
+                    bits |= 1L << (y * GRID + x);
+                }
+            }
+        }
+        return bits;
+    }
+
+    // Whether a tile shown in an orientation has exactly the pixels of another tile shown as it is
+    // A quarter turn of a tile that is not square never matches, its pixels would not line up
+    public static boolean sameLook(BufferedImage shown, BufferedImage tile, int orientation) {
+        int width = shown.getWidth();
+        int height = shown.getHeight();
+        boolean sideways = (Orientation.quarterTurns(orientation) & 1) != 0;
+        if (tile.getWidth() != width || tile.getHeight() != height || sideways && width != height) {
+            return false;
+        }
+        int[] a = intPixels(shown), b = intPixels(tile);
+        int strideA = pixelStride(shown), strideB = pixelStride(tile);
+        int offsetA = pixelOffset(shown), offsetB = pixelOffset(tile);
+        int quarterTurns = Orientation.quarterTurns(orientation);
+        boolean flipped = Orientation.isFlipped(orientation);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Walks back from the shown pixel (x, y) to the pixel of the untransformed tile, the same way as pattern()
+                int sx, sy;
+                switch (quarterTurns) {
+                    case 1:
+                        sx = y; sy = width - 1 - x;
+                        break;
+                    case 2:
+                        sx = width - 1 - x; sy = height - 1 - y;
+                        break;
+                    case 3:
+                        sx = height - 1 - y; sy = x;
+                        break;
+                    default:
+                        sx = x; sy = y;
+                        break;
+                }
+                if (flipped) {
+                    sx = width - 1 - sx;
+                }
+                if (((a[offsetA + y * strideA + x] ^ b[offsetB + sy * strideB + sx]) & 0xFFFFFF) != 0) {
+                    return false; // The top byte is ignored, it is padding or alpha on an opaque tile
+                }
+            }
+        }
+        return true;
+    }
+
+    // The int pixel array behind the tile, converting it first when it is not stored as packed ints
+    static int[] intPixels(BufferedImage tile) {
+        if (isIntPacked(tile)) {
+            return ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        }
+        return ((DataBufferInt) toIntRgb(tile).getRaster().getDataBuffer()).getData();
+    }
+
+    // Distance in the pixel array between two rows
+    static int pixelStride(BufferedImage tile) {
+        if (isIntPacked(tile)) {
+            return ((SinglePixelPackedSampleModel) tile.getRaster().getSampleModel()).getScanlineStride();
+        }
+        return tile.getWidth();
+    }
+
+    // Index of the top left pixel in the pixel array
+    static int pixelOffset(BufferedImage tile) {
+        if (isIntPacked(tile)) {
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) tile.getRaster().getSampleModel();
+            int x = -tile.getRaster().getSampleModelTranslateX();
+            int y = -tile.getRaster().getSampleModelTranslateY();
+            return tile.getRaster().getDataBuffer().getOffset() + y * model.getScanlineStride() + x;
+        }
+        return 0;
+    }
+
+    // Whether the tile stores one RGB pixel per int, the layout the hash reads directly
+    static boolean isIntPacked(BufferedImage tile) {
+        int type = tile.getType();
+        return (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && tile.getRaster().getDataBuffer() instanceof DataBufferInt
+                && tile.getRaster().getSampleModel() instanceof SinglePixelPackedSampleModel;
+    }
+
+    // Copies a tile into a TYPE_INT_RGB image
+    static BufferedImage toIntRgb(BufferedImage tile) {
+        BufferedImage copy = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = copy.createGraphics();
+        g2.drawImage(tile, 0, 0, null);
+        g2.dispose();
+        return copy;
+    }
+}
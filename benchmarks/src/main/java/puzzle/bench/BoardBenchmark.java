@@ -0,0 +1,86 @@
+package puzzle.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Board and piece hot paths across grid sizes
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+    @Param({"3", "10", "50", "100", "200"})
+    int size; // Rows and columns of the board
+
+    BufferedImage source; // Synthetic source image
+    Object board; // PuzzleBoard under test
+    Object piece; // A piece in the middle of the board
+    BufferedImage pieceImage; // Untransformed image of that piece
+    Object atlas; // TileAtlas of the board, what PuzzleGUI draws pieces from
+    BufferedImage tile; // Offscreen surface one tile is drawn into
+    Graphics2D graphics; // Graphics of that surface
+    int tileSize; // Size of one tile on screen
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = SyntheticImage.create();
+        board = Hooks.newBoard(size, size, source);
+        piece = Hooks.pieceAt(board, size / 2, size / 2);
+        pieceImage = Hooks.pieceImage(piece);
+        while (Hooks.orientation(piece) == 0) {
+            Hooks.applyTo(Hooks.rotateRight(size / 2, size / 2), board); // A turned piece, so the transform is part of the draw
+        }
+        tileSize = 500 / size;
+        atlas = Hooks.newTileAtlas(Hooks.pieces(board), size, size, tileSize);
+        tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        graphics = tile.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    // Drawing one turned piece out of the atlas, what every tile of a frame costs
+    @Benchmark
+    public BufferedImage drawTile() {
+        Hooks.drawTile(atlas, graphics, piece, 0, 0);
+        return tile;
+    }
+
+    // Fingerprinting all 8 orientations of one tile, what replaced comparing images pixel by pixel
+    @Benchmark
+    public Object tileHash() {
+        return Hooks.tileHash(pieceImage);
+    }
+
+    // PuzzleBoard.shuffleAndTransformPieces on the whole board
+    @Benchmark
+    public Object shuffleAndTransformPieces() {
+        Hooks.shuffle(board);
+        return board;
+    }
+
+    // Building a board, every tile drawn into its own compact raster and fingerprinted in parallel
+    @Benchmark
+    public Object construct() {
+        return Hooks.newBoard(size, size, source);
+    }
+}
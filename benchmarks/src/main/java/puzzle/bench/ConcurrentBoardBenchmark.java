@@ -0,0 +1,90 @@
+package puzzle.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// Many players moving on one board at once -> ConcurrentBoard against a PackedBoard behind a single lock
+// Runs on every core by default, pass -t 1, -t 2, ... to see how throughput scales with the # of threads
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConcurrentBoardBenchmark {
+    @Param({"10", "50", "200"})
+    int size; // Rows and columns of the board, small boards make players collide more often
+
+    Object concurrent; // ConcurrentBoard shared by every thread
+    Object packed; // PackedBoard shared by every thread, guarded by its own monitor
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        concurrent = Hooks.newConcurrentBoard(size, size);
+        packed = Hooks.newPackedBoard(size, size);
+    }
+
+    // Moves one player makes, drawn up front so picking the next one costs nothing
+    @State(Scope.Thread)
+    public static class Player {
+        static final int MOVES = 4096; // Cycled through, a power of two
+
+        Object[] moves = new Object[MOVES];
+        int next; // Index of the next move
+
+        @Setup(Level.Trial)
+        public void setUp(ConcurrentBoardBenchmark benchmark) {
+            int size = benchmark.size;
+            SplittableRandom random = new SplittableRandom(Thread.currentThread().getId());
+            for (int i = 0; i < MOVES; i++) {
+                int row = random.nextInt(size), col = random.nextInt(size);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        moves[i] = Hooks.swap(row, col, random.nextInt(size), random.nextInt(size));
+                        break;
+                    case 1:
+                        moves[i] = Hooks.rotateRight(row, col);
+                        break;
+                    default:
+                        moves[i] = Hooks.flip(row, col);
+                        break;
+                }
+            }
+        }
+
+        Object next() {
+            return moves[next++ & (MOVES - 1)];
+        }
+    }
+
+    // ConcurrentBoard.tryApply, a move either lands or reports a conflict, nobody waits
+    @Benchmark
+    public Object tryApply(Player player) {
+        return Hooks.tryApply(concurrent, player.next());
+    }
+
+    // The same moves on a PackedBoard, every thread taking turns on one lock
+    @Benchmark
+    public Object lockedPacked(Player player) {
+        Object move = player.next();
+        synchronized (packed) {
+            Hooks.applyTo(move, packed);
+        }
+        return move;
+    }
+}
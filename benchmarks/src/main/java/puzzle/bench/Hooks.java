@@ -0,0 +1,274 @@
+package puzzle.bench;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+// The game classes live in the default package, which a named package cannot import, so benchmarks reach them through method handles
+final class Hooks {
+    static final Class<?> PUZZLE_BOARD = load("PuzzleBoard");
+    static final Class<?> IMAGE_PIECE = load("ImagePiece");
+    static final Class<?> PUZZLE_GUI = load("PuzzleGUI");
+    static final Class<?> TILE_HASH = load("TileHash");
+    static final Class<?> TILE_ATLAS = load("TileAtlas");
+    static final Class<?> CONCURRENT_BOARD = load("ConcurrentBoard");
+    static final Class<?> PACKED_BOARD = load("PackedBoard");
+    static final Class<?> BOARD_STATE = load("BoardState");
+    static final Class<?> MOVE = load("Move");
+    static final Class<?> PUZZLE_SOLVER = load("PuzzleSolver");
+
+    // Every handle is adapted to its erased type -> game classes become Object, primitives stay primitive. The wrappers below
+    // call them with invokeExact and matching static types, so the JIT inlines the call and nothing is boxed or allocated
+    static final MethodHandle NEW_BOARD = erased(constructor(PUZZLE_BOARD, int.class, int.class, BufferedImage.class));
+    static final MethodHandle SHUFFLE = erased(method(PUZZLE_BOARD, "shuffleAndTransformPieces"));
+    static final MethodHandle GET_PIECE_AT = erased(method(PUZZLE_BOARD, "getPieceAt", int.class, int.class));
+    static final MethodHandle GET_PIECES = erased(method(PUZZLE_BOARD, "getPieces"));
+    static final MethodHandle PIECE_IMAGE = erased(getter(IMAGE_PIECE, "image"));
+    static final MethodHandle ORIENTATION_INDEX = erased(method(IMAGE_PIECE, "orientationIndex"));
+    static final MethodHandle NEW_TILE_ATLAS = erased(constructor(TILE_ATLAS, List.class, int.class, int.class, int.class, GraphicsConfiguration.class));
+    static final MethodHandle DRAW_TILE = erased(method(TILE_ATLAS, "draw", Graphics2D.class, IMAGE_PIECE, int.class, int.class));
+    static final MethodHandle NEW_GUI = erased(constructor(PUZZLE_GUI, PUZZLE_BOARD));
+    static final MethodHandle CHECK_SOLVED = erased(method(PUZZLE_GUI, "checkSolved"));
+    static final MethodHandle PAINT_COMPONENT = erased(method(PUZZLE_GUI, "paintComponent", Graphics.class));
+    static final MethodHandle REPAINT_TILE = erased(method(PUZZLE_GUI, "repaintTile", int.class, int.class));
+    static final MethodHandle COMPUTE_TILE_HASH = erased(method(TILE_HASH, "compute", BufferedImage.class));
+    static final MethodHandle NEW_CONCURRENT_BOARD = erased(constructor(CONCURRENT_BOARD, int.class, int.class));
+    static final MethodHandle NEW_PACKED_BOARD = erased(constructor(PACKED_BOARD, int.class, int.class));
+    static final MethodHandle TRY_APPLY = erased(method(CONCURRENT_BOARD, "tryApply", MOVE));
+    static final MethodHandle APPLY_TO = erased(method(MOVE, "applyTo", BOARD_STATE));
+    static final MethodHandle SWAP = erased(method(MOVE, "swap", int.class, int.class, int.class, int.class));
+    static final MethodHandle ROTATE_RIGHT = erased(method(MOVE, "rotateRight", int.class, int.class));
+    static final MethodHandle FLIP = erased(method(MOVE, "flip", int.class, int.class));
+    static final MethodHandle SOLVE = erased(method(PUZZLE_SOLVER, "solve", PUZZLE_BOARD));
+
+    private Hooks() {
+    }
+
+    static Object newBoard(int rows, int cols, BufferedImage image) {
+        try {
+            return (Object) NEW_BOARD.invokeExact(rows, cols, (Object) image);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void shuffle(Object board) {
+        try {
+            SHUFFLE.invokeExact(board);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object pieceAt(Object board, int row, int col) {
+        try {
+            return (Object) GET_PIECE_AT.invokeExact(board, row, col);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static List<?> pieces(Object board) {
+        try {
+            return (List<?>) (Object) GET_PIECES.invokeExact(board);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static BufferedImage pieceImage(Object piece) {
+        try {
+            return (BufferedImage) (Object) PIECE_IMAGE.invokeExact(piece);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static int orientation(Object piece) {
+        try {
+            return (int) ORIENTATION_INDEX.invokeExact(piece);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newTileAtlas(List<?> pieces, int rows, int cols, int tileSize) {
+        try {
+            return (Object) NEW_TILE_ATLAS.invokeExact((Object) pieces, rows, cols, tileSize, (Object) null);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void drawTile(Object atlas, Graphics2D graphics, Object piece, int x, int y) {
+        try {
+            DRAW_TILE.invokeExact(atlas, (Object) graphics, piece, x, y);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newGui(Object board) {
+        try {
+            return (Object) NEW_GUI.invokeExact(board);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void checkSolved(Object gui) {
+        try {
+            CHECK_SOLVED.invokeExact(gui);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void paintComponent(Object gui, Graphics graphics) {
+        try {
+            PAINT_COMPONENT.invokeExact(gui, (Object) graphics);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void repaintTile(Object gui, int row, int col) {
+        try {
+            REPAINT_TILE.invokeExact(gui, row, col);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object tileHash(BufferedImage image) {
+        try {
+            return (Object) COMPUTE_TILE_HASH.invokeExact((Object) image);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newConcurrentBoard(int rows, int cols) {
+        try {
+            return (Object) NEW_CONCURRENT_BOARD.invokeExact(rows, cols);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object newPackedBoard(int rows, int cols) {
+        try {
+            return (Object) NEW_PACKED_BOARD.invokeExact(rows, cols);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object tryApply(Object board, Object move) {
+        try {
+            return (Object) TRY_APPLY.invokeExact(board, move);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void applyTo(Object move, Object board) {
+        try {
+            APPLY_TO.invokeExact(move, board);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object swap(int row1, int col1, int row2, int col2) {
+        try {
+            return (Object) SWAP.invokeExact(row1, col1, row2, col2);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object rotateRight(int row, int col) {
+        try {
+            return (Object) ROTATE_RIGHT.invokeExact(row, col);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object flip(int row, int col) {
+        try {
+            return (Object) FLIP.invokeExact(row, col);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object solve(Object board) {
+        try {
+            return (Object) SOLVE.invokeExact(board);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            Constructor<?> constructor = owner.getDeclaredConstructor(parameters);
+            constructor.setAccessible(true); // Package-private in the default package
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static MethodHandle getter(Class<?> owner, String name) {
+        try {
+            Field field = owner.getDeclaredField(name);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectGetter(field);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The handle with every reference type in its signature replaced by Object
+    static MethodHandle erased(MethodHandle handle) {
+        return handle.asType(handle.type().erase());
+    }
+
+    static MethodHandle method(Class<?> owner, String name, Class<?>... parameters) {
+        try {
+            Method method = owner.getDeclaredMethod(name, parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+}
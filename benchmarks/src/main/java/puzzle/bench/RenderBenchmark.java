@@ -0,0 +1,79 @@
+package puzzle.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.swing.JPanel;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// PuzzleGUI hot paths, painted offscreen into a BufferedImage so no display is needed
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    @Param({"3", "10", "50", "100", "200"})
+    int size; // Rows and columns of the board
+
+    JPanel gui; // PuzzleGUI under test
+    BufferedImage frame; // Offscreen surface the panel paints into
+    Graphics2D graphics; // Graphics of the offscreen surface
+    int tileSize; // Size of one tile on screen
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Object board = Hooks.newBoard(size, size, SyntheticImage.create());
+        gui = (JPanel) Hooks.newGui(board);
+        Dimension preferred = gui.getPreferredSize();
+        gui.setSize(preferred);
+        frame = new BufferedImage(preferred.width, preferred.height, BufferedImage.TYPE_INT_RGB);
+        graphics = frame.createGraphics();
+        tileSize = 500 / size;
+        Hooks.paintComponent(gui, graphics); // Builds the back buffer once
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    // A full frame, every pixel of the panel is repainted
+    @Benchmark
+    public BufferedImage paintFullFrame() {
+        graphics.setClip(null);
+        Hooks.paintComponent(gui, graphics);
+        return frame;
+    }
+
+    // A frame after one tile changed, what a rotation or flip costs
+    @Benchmark
+    public BufferedImage paintDirtyTile() {
+        Hooks.repaintTile(gui, size / 2, size / 2);
+        graphics.setClip(size / 2 * tileSize, size / 2 * tileSize, tileSize, tileSize);
+        Hooks.paintComponent(gui, graphics);
+        return frame;
+    }
+
+    // PuzzleGUI.checkSolved on a board that is not solved
+    @Benchmark
+    public JPanel checkSolved() {
+        Hooks.checkSolved(gui);
+        return gui;
+    }
+}
@@ -0,0 +1,41 @@
+package puzzle.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// PuzzleSolver rebuilding a whole shuffled board, what the first hint of a game waits for. A 30x30 board should take seconds
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SolverBenchmark {
+    @Param({"10", "20", "30"})
+    int size; // Rows and columns of the board
+
+    Object board; // Shuffled PuzzleBoard to rebuild
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        board = Hooks.newBoard(size, size, SyntheticImage.create());
+    }
+
+    // Matching every edge, growing the layouts and repairing them
+    @Benchmark
+    public Object solve() {
+        return Hooks.solve(board);
+    }
+}
@@ -0,0 +1,27 @@
+package puzzle.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+// Deterministic stand-in for a generated image, so benchmarks never touch the network
+final class SyntheticImage {
+    static final int SIZE = 1000; // Divides evenly into every benchmarked grid size
+
+    private SyntheticImage() {
+    }
+
+    // Gradients with a little noise, so neighbouring tiles differ the way a real picture does
+    static BufferedImage create() {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        SplittableRandom random = new SplittableRandom(42);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int r = x * 255 / SIZE;
+                int g = y * 255 / SIZE;
+                int b = ((x ^ y) & 0x7F) + random.nextInt(16);
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BoardSnapshotTest {
+    @TempDir
+    Path dir; // Where the snapshots of the test are written
+
+    // An int-packed image comes back with its pixels and the layout as it was saved, but without a seed
+    @Test
+    void intPackedRoundTrip() throws IOException {
+        roundTrip(TileHashTest.noise(60, 45, 1), 3, 4);
+    }
+
+    // An image with another pixel layout, or with alpha, is saved as ints and comes back with the same colors
+    @Test
+    void otherPixelLayoutsRoundTrip() throws IOException {
+        roundTrip(convert(TileHashTest.noise(50, 50, 2), BufferedImage.TYPE_3BYTE_BGR), 5, 5);
+        BufferedImage colors = TileHashTest.noise(40, 30, 3);
+        BufferedImage translucent = new BufferedImage(40, 30, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                translucent.setRGB(x, y, (x * 6) << 24 | colors.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+        roundTrip(translucent, 3, 2);
+    }
+
+    // A sub-image is saved row by row out of the bigger raster it shares, only its own pixels are kept
+    @Test
+    void subImageRoundTrip() throws IOException {
+        BufferedImage big = TileHashTest.noise(100, 80, 4);
+        roundTrip(big.getSubimage(13, 7, 60, 48), 4, 3);
+        roundTrip(convert(big, BufferedImage.TYPE_3BYTE_BGR).getSubimage(5, 20, 33, 40), 2, 3);
+    }
+
+    // A file that is cut short is refused instead of built into a broken board
+    @Test
+    void truncatedSnapshotIsRefused() throws IOException {
+        Path file = dir.resolve("snapshot.bin");
+        BoardSnapshot.save(new PuzzleBoard(3, 3, TileHashTest.noise(30, 30, 5)), file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+        assertThrows(IOException.class, () -> BoardSnapshot.restore(file));
+        Files.write(file, Arrays.copyOf(bytes, BoardSnapshot.HEADER_BYTES - 1));
+        assertThrows(IOException.class, () -> BoardSnapshot.restore(file));
+    }
+
+    // Saves a shuffled board of the image after a few moves, and checks the restored one piece by piece and pixel by pixel
+    void roundTrip(BufferedImage image, int rows, int cols) throws IOException {
+        PuzzleBoard board = new PuzzleBoard(rows, cols, image);
+        board.swapPieces(0, 0, rows - 1, cols - 1);
+        board.rotatePieceRight(0, 0);
+        Path file = dir.resolve("snapshot-" + rows + "x" + cols + ".bin");
+        BoardSnapshot.save(board, file);
+        PuzzleBoard restored = BoardSnapshot.restore(file);
+
+        assertEquals(rows, restored.getRows());
+        assertEquals(cols, restored.getCols());
+        for (int i = 0; i < rows * cols; i++) {
+            ImagePiece saved = board.getPieces().get(i), back = restored.getPieces().get(i);
+            assertEquals(saved.correctRow, back.correctRow, "cell " + i);
+            assertEquals(saved.correctCol, back.correctCol, "cell " + i);
+            assertEquals(saved.orientationIndex(), back.orientationIndex(), "cell " + i);
+        }
+        assertEquals(board.isSolved(), restored.isSolved());
+        assertFalse(restored.isSolved());
+        assertEquals(0, restored.getSeed());
+        assertNull(restored.getDifficulty());
+
+        BufferedImage pixels = restored.solvedImage;
+        assertEquals(image.getWidth(), pixels.getWidth());
+        assertEquals(image.getHeight(), pixels.getHeight());
+        assertEquals(image.getColorModel().hasAlpha(), pixels.getColorModel().hasAlpha());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                assertEquals(image.getRGB(x, y), pixels.getRGB(x, y), "pixel " + x + "," + y);
+            }
+        }
+    }
+
+    static BufferedImage convert(BufferedImage image, int type) {
+        BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(), type);
+        Graphics2D g2 = converted.createGraphics();
+        g2.drawImage(image, 0, 0, null);
+        g2.dispose();
+        return converted;
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrentBoardTest {
+    static final int THREADS = 8;
+    static final int MOVES_PER_THREAD = 20_000;
+
+    // Players hammering a small board while a subscriber mirrors every change into a PackedBoard -> the mirror, the board
+    // and the solved count all have to agree once everyone stopped
+    @Test
+    void subscriberMirrorsConcurrentMoves() throws Exception {
+        ConcurrentBoard board = new ConcurrentBoard(4, 4);
+        ConcurrentBoard.Subscription subscription = board.subscribe();
+        PackedBoard mirror = new PackedBoard(4, 4);
+        copy(subscription.getSnapshot(), mirror);
+
+        AtomicLong applied = new AtomicLong();
+        AtomicLong published = new AtomicLong(); // Applied moves that changed the board, a swap of a cell with itself does not
+        AtomicBoolean playing = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> players = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            Thread player = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                awaitQuietly(start);
+                for (int i = 0; i < MOVES_PER_THREAD; i++) {
+                    Move move = randomMove(random, 4, 4);
+                    if (board.tryApply(move) == ConcurrentBoard.Result.APPLIED) {
+                        applied.incrementAndGet();
+                        if (move.type != Move.Type.SWAP || move.row1 != move.row2 || move.col1 != move.col2) {
+                            published.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            player.start();
+            players.add(player);
+        }
+
+        // The subscriber keeps up while the players move, starting again from a snapshot whenever it falls behind
+        Thread subscriber = new Thread(() -> {
+            while (playing.get()) {
+                follow(subscription, mirror);
+                Thread.yield();
+            }
+        });
+        subscriber.start();
+        start.countDown();
+        for (Thread player : players) {
+            player.join();
+        }
+        playing.set(false);
+        subscriber.join();
+        do {
+            follow(subscription, mirror); // The ring can still come around during the last poll, which then starts again
+        } while (subscription.isLagged());
+
+        ConcurrentBoard.Snapshot snapshot = board.snapshot();
+        assertEquals(snapshot.seq, subscription.cursor);
+        assertArrayEquals(snapshot.pieces, mirror.pieces);
+        assertArrayEquals(snapshot.orientations, mirror.orientations);
+        assertEquals(recount(snapshot), board.correctCount.get());
+        assertEquals(mirror.correctCount, board.correctCount.get());
+        assertTrue(applied.get() > 0);
+        assertEquals(THREADS * (long) MOVES_PER_THREAD, applied.get() + board.getConflicts());
+        assertEquals(published.get() + 1, board.getSequence()); // Plus the first layout
+    }
+
+    // A subscriber that falls more than the whole feed behind is told so, and catches up from resync()
+    @Test
+    void laggingSubscriberResyncs() {
+        ConcurrentBoard board = new ConcurrentBoard(3, 3);
+        ConcurrentBoard.Subscription subscription = board.subscribe();
+        for (int i = 0; i < ConcurrentBoard.FEED_SIZE + 10; i++) {
+            board.rotatePieceRight(1, 1);
+        }
+
+        assertEquals(0, subscription.poll(change -> { }, Integer.MAX_VALUE));
+        assertTrue(subscription.isLagged());
+
+        PackedBoard mirror = new PackedBoard(3, 3);
+        copy(subscription.resync(), mirror);
+        assertFalse(subscription.isLagged());
+        board.flipPiece(0, 0);
+        follow(subscription, mirror);
+        ConcurrentBoard.Snapshot snapshot = board.snapshot();
+        assertArrayEquals(snapshot.pieces, mirror.pieces);
+        assertArrayEquals(snapshot.orientations, mirror.orientations);
+    }
+
+    // Moves that touch a piece being moved give up instead of waiting, moves off the board change nothing
+    @Test
+    void lockedCellIsConflict() {
+        ConcurrentBoard board = new ConcurrentBoard(3, 3);
+        int value = board.tryLock(4);
+        assertEquals(ConcurrentBoard.Result.CONFLICT, board.tryApply(Move.swap(0, 0, 1, 1)));
+        assertEquals(ConcurrentBoard.Result.CONFLICT, board.tryApply(Move.flip(1, 1)));
+        board.cells.set(4, value);
+
+        assertEquals(ConcurrentBoard.Result.INVALID, board.tryApply(Move.flip(3, 0)));
+        assertEquals(0, board.cells.get(0) & ConcurrentBoard.LOCKED); // The failed swap unlocked the cell it took first
+        assertEquals(2, board.getConflicts());
+    }
+
+    // Applies every change the subscription has, and reads the board anew when it lagged or was laid out again
+    static void follow(ConcurrentBoard.Subscription subscription, PackedBoard mirror) {
+        if (subscription.isLagged()) {
+            copy(subscription.resync(), mirror);
+        }
+        subscription.poll(change -> {
+            if (change.move != null) {
+                change.move.applyTo(mirror);
+            }
+        }, Integer.MAX_VALUE);
+    }
+
+    static void copy(ConcurrentBoard.Snapshot snapshot, PackedBoard mirror) {
+        mirror.applyLayout(new ShuffleEngine.Layout(0, null, snapshot.pieces, snapshot.orientations));
+    }
+
+    static int recount(ConcurrentBoard.Snapshot snapshot) {
+        int correct = 0;
+        for (int i = 0; i < snapshot.pieces.length; i++) {
+            correct += snapshot.pieces[i] == i && snapshot.orientations[i] == 0 ? 1 : 0;
+        }
+        return correct;
+    }
+
+    static Move randomMove(SplittableRandom random, int rows, int cols) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return Move.rotateLeft(random.nextInt(rows), random.nextInt(cols));
+            case 1:
+                return Move.rotateRight(random.nextInt(rows), random.nextInt(cols));
+            case 2:
+                return Move.flip(random.nextInt(rows), random.nextInt(cols));
+            default:
+                return Move.swap(random.nextInt(rows), random.nextInt(cols), random.nextInt(rows), random.nextInt(cols));
+        }
+    }
+
+    static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A local stand-in for the image generation API -> answers every call with the next scripted reply, or with n image URLs
+// once the script runs out, and serves small PNGs at those URLs
+class FakeOpenAI implements AutoCloseable {
+    // One scripted answer to an image generation call
+    static final class Reply {
+        final int status; // HTTP status sent back
+        final String retryAfter; // Retry-After header, null to leave it out
+        final boolean hold; // Keeps the call open until the server is closed, a request that never answers
+
+        Reply(int status, String retryAfter, boolean hold) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.hold = hold;
+        }
+    }
+
+    HttpServer server; // Local server on a free port
+    ExecutorService handlers = Executors.newCachedThreadPool(); // Every call gets its own thread, so a held one blocks nothing
+    ConcurrentLinkedQueue<Reply> script = new ConcurrentLinkedQueue<>(); // Replies still to send, oldest first
+    List<Long> calls = new CopyOnWriteArrayList<>(); // nanoTime every image generation call arrived at
+    CountDownLatch closed = new CountDownLatch(1); // Released when the server is closed, held calls then end
+    AtomicInteger images = new AtomicInteger(); // Image URLs handed out so far
+    volatile boolean broken; // Serves bytes that are not an image at the image URLs
+
+    // The constructor, starting the server
+    FakeOpenAI() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(handlers);
+        server.createContext("/v1/images/generations", this::generate);
+        server.createContext("/images/", this::image);
+        server.start();
+    }
+
+    // URL of the image generation endpoint
+    String apiUrl() {
+        return base() + "/v1/images/generations";
+    }
+
+    String base() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    // Queues the replies the next calls get, in order
+    FakeOpenAI reply(int status) {
+        script.add(new Reply(status, null, false));
+        return this;
+    }
+
+    FakeOpenAI reply(int status, String retryAfter) {
+        script.add(new Reply(status, retryAfter, false));
+        return this;
+    }
+
+    FakeOpenAI hold() {
+        script.add(new Reply(200, null, true));
+        return this;
+    }
+
+    // Makes every image downloaded from now on unreadable
+    FakeOpenAI breakImages() {
+        broken = true;
+        return this;
+    }
+
+    // # of image generation calls that arrived
+    int callCount() {
+        return calls.size();
+    }
+
+    // Waits until at least count image generation calls arrived
+    void awaitCalls(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (calls.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    void generate(HttpExchange exchange) throws IOException {
+        calls.add(System.nanoTime());
+        JSONObject payload = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        Reply reply = script.poll();
+        if (reply != null && reply.hold) {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+            return;
+        }
+        if (reply != null && reply.status != 200) {
+            if (reply.retryAfter != null) {
+                exchange.getResponseHeaders().add("Retry-After", reply.retryAfter);
+            }
+            send(exchange, reply.status, "{\"error\":{\"message\":\"scripted failure\"}}".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        JSONArray data = new JSONArray();
+        for (int i = 0; i < payload.getInt("n"); i++) {
+            data.put(new JSONObject().put("url", base() + "/images/" + images.incrementAndGet() + ".png"));
+        }
+        send(exchange, 200, new JSONObject().put("data", data).toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A small PNG with a different color for every URL, so every image is stored on its own
+    void image(HttpExchange exchange) throws IOException {
+        if (broken) {
+            send(exchange, 200, "not an image".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        String path = exchange.getRequestURI().getPath();
+        int number = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1, path.indexOf(".png")));
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                image.setRGB(x, y, number * 0x010203 + x * 16 + y);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        send(exchange, 200, bytes.toByteArray());
+    }
+
+    static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed.countDown();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+}
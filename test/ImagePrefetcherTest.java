@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImagePrefetcherTest {
+    FakeOpenAI api; // Local fake of the image generation endpoint
+    HttpClient client = HttpClient.newHttpClient();
+    String model; // Model set before the test, put back after it
+
+    @TempDir
+    Path cacheDir; // Disk cache of the images downloaded during the test
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new FakeOpenAI();
+        model = OpenAI.OPENAI_IMAGE_MODEL;
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-2";
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+        OpenAI.OPENAI_IMAGE_MODEL = model;
+    }
+
+    ImagePrefetcher prefetcher(int depth, int batchSize) {
+        return new ImagePrefetcher(client, api.apiUrl(), "key", new ImageLoader(client, cacheDir, 8), depth, batchSize);
+    }
+
+    // A pool fills up to its depth in whole batches, and only asks for more once a whole batch has room again
+    @Test
+    void poolFillsInBatches() throws Exception {
+        ImagePrefetcher prefetcher = prefetcher(4, 2);
+        prefetcher.prefetch("a cat");
+        awaitReady(prefetcher, "a cat", 4);
+        assertEquals(2, api.callCount());
+
+        assertNotNull(prefetcher.next("a cat").get(10, TimeUnit.SECONDS));
+        assertEquals(2, api.callCount()); // Room for one image is less than a batch
+
+        assertNotNull(prefetcher.next("a cat").get(10, TimeUnit.SECONDS));
+        awaitReady(prefetcher, "a cat", 4);
+        assertEquals(3, api.callCount());
+        assertEquals(2, prefetcher.getHits());
+    }
+
+    // A caller asking before the images arrived gets the next one to come in, even from a batch asked for after it
+    @Test
+    void callerWaitsForImageInFlight() throws Exception {
+        ImagePrefetcher prefetcher = prefetcher(1, 1);
+        api.hold();
+        prefetcher.prefetch("a cat");
+        api.awaitCalls(1);
+        CompletableFuture<BufferedImage> image = prefetcher.next("a cat"); // The first call never answers
+
+        assertNotNull(image.get(10, TimeUnit.SECONDS));
+        assertEquals(2, api.callCount());
+        assertEquals(1, prefetcher.getHits());
+    }
+
+    // A failed batch fails the callers waiting on it, and a prompt nothing was prefetched for is a miss
+    @Test
+    void failedBatchFailsWaiters() throws Exception {
+        ImagePrefetcher prefetcher = prefetcher(2, 2);
+        api.hold().reply(400);
+        prefetcher.prefetch("a cat");
+        api.awaitCalls(1);
+        CompletableFuture<BufferedImage> first = prefetcher.next("a cat");
+        CompletableFuture<BufferedImage> second = prefetcher.next("a cat"); // Claims the whole pool, so a new batch is asked for
+        api.awaitCalls(2);
+        assertNull(prefetcher.next("a dog"));
+        api.close();
+
+        assertThrows(ExecutionException.class, () -> first.get(30, TimeUnit.SECONDS));
+        assertThrows(ExecutionException.class, () -> second.get(30, TimeUnit.SECONDS));
+        assertEquals(4, prefetcher.getFailures());
+        assertEquals(1, prefetcher.getMisses());
+    }
+
+    // dall-e-3 batches keep the images that arrived, only the failed ones are counted as failures
+    @Test
+    void dallE3PartialBatchFillsPool() throws Exception {
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-3";
+        api.reply(400);
+        ImagePrefetcher prefetcher = prefetcher(3, 3);
+        prefetcher.prefetch("a cat");
+        awaitReady(prefetcher, "a cat", 2);
+
+        assertEquals(3, api.callCount());
+        assertEquals(1, prefetcher.getFailures());
+        assertEquals(2, prefetcher.readyCount("a cat"));
+    }
+
+    // An image that was downloaded but cannot be read is a failure, never a null handed to the caller waiting for it
+    @Test
+    void unreadableImageFailsWaiter() throws Exception {
+        ImagePrefetcher prefetcher = prefetcher(1, 1);
+        api.breakImages().hold();
+        prefetcher.prefetch("a cat");
+        api.awaitCalls(1);
+        CompletableFuture<BufferedImage> image = prefetcher.next("a cat"); // Waits on the held call, the refill gets a broken image
+        api.awaitCalls(2);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (prefetcher.getFailures() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, prefetcher.getFailures());
+        api.close();
+
+        assertThrows(ExecutionException.class, () -> image.get(30, TimeUnit.SECONDS));
+        assertEquals(2, prefetcher.getFailures());
+        assertEquals(0, prefetcher.readyCount("a cat"));
+    }
+
+    // Waits until the pool of a prompt has the given # of images ready
+    static void awaitReady(ImagePrefetcher prefetcher, String prompt, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (prefetcher.readyCount(prompt) < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, prefetcher.readyCount(prompt));
+    }
+}
@@ -0,0 +1,35 @@
+import org.junit.jupiter.api.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    // The bean is read-only the way JMX clients expect -> setting fails as an unknown attribute, invoking as a missing
+    // operation, and setting many sets none
+    @Test
+    void beanIsReadOnly() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName("puzzle:type=Metrics");
+        server.registerMBean(new Metrics.Bean(), name);
+        String attribute = server.getMBeanInfo(name).getAttributes()[0].getName();
+
+        assertInstanceOf(Number.class, server.getAttribute(name, attribute));
+        assertThrows(AttributeNotFoundException.class, () -> server.setAttribute(name, new Attribute(attribute, 1L)));
+        assertThrows(AttributeNotFoundException.class, () -> server.getAttribute(name, "noSuchMetric"));
+        ReflectionException e = assertThrows(ReflectionException.class, () -> server.invoke(name, "reset", null, null));
+        assertInstanceOf(NoSuchMethodException.class, e.getTargetException());
+
+        AttributeList list = new AttributeList();
+        list.add(new Attribute(attribute, 1L));
+        assertTrue(server.setAttributes(name, list).isEmpty());
+    }
+}
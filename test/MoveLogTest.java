@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MoveLogTest {
+    @TempDir
+    Path dir; // Where the log files of a test are written
+
+    // Every kind of move comes back out of its entry as it went in, also on the far corner of a big board
+    @Test
+    void encodeDecodeRoundTrip() {
+        MoveLog log = new MoveLog(1000, 1000, 1, ShuffleEngine.Difficulty.HARD);
+        Move[] moves = {Move.swap(0, 0, 999, 999), Move.swap(999, 0, 0, 999), Move.rotateLeft(500, 1),
+                Move.rotateRight(1, 500), Move.flip(999, 999)};
+        for (Move move : moves) {
+            long record = log.encode(move);
+            assertTrue(log.isValid(record));
+            assertEquals(move.toString(), log.decode(record).toString());
+        }
+    }
+
+    // Undo steps back through the moves, redo forward again, and a new move drops whatever could be redone
+    @Test
+    void undoRedo() {
+        MoveLog log = new MoveLog(3, 3, 1, ShuffleEngine.Difficulty.HARD);
+        assertNull(log.undo());
+        log.record(Move.swap(0, 0, 1, 1));
+        log.record(Move.rotateLeft(2, 2));
+
+        assertEquals(Move.rotateRight(2, 2).toString(), log.undo().toString());
+        assertEquals(Move.swap(0, 0, 1, 1).toString(), log.undo().toString());
+        assertNull(log.undo());
+        assertEquals(Move.swap(0, 0, 1, 1).toString(), log.redo().toString());
+        assertTrue(log.canRedo());
+
+        log.record(Move.flip(0, 1));
+        assertFalse(log.canRedo());
+        assertNull(log.redo());
+        assertEquals(Move.flip(0, 1).toString(), log.undo().toString());
+        assertEquals(7, log.size()); // Undos and redos are entries too, the ones that did nothing are not
+    }
+
+    // A board rebuilt from the seed plus the log file is the board the moves were played on
+    @Test
+    void replayFromSeedAndFile() throws IOException {
+        PackedBoard board = new PackedBoard(6, 6);
+        Path file = dir.resolve("moves.log");
+        MoveLog log = MoveLog.create(file, board);
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < 3000; i++) { // More than the first mapping holds, so the file has to grow
+            if (i % 10 == 9) {
+                Move move = random.nextBoolean() ? log.undo() : log.redo();
+                if (move != null) {
+                    move.applyTo(board);
+                }
+            } else {
+                Move move = ConcurrentBoardTest.randomMove(random, 6, 6);
+                move.applyTo(board);
+                log.record(move);
+            }
+        }
+        log.close();
+
+        MoveLog loaded = MoveLog.load(file);
+        assertEquals(log.size(), loaded.size());
+        PackedBoard rebuilt = new PackedBoard(6, 6);
+        loaded.replay(rebuilt);
+        loaded.close();
+        assertArrayEquals(board.pieces, rebuilt.pieces);
+        assertArrayEquals(board.orientations, rebuilt.orientations);
+        assertEquals(board.correctCount, rebuilt.correctCount);
+    }
+
+    // A file shorter than its header claims is refused, instead of being grown with zeros that read back as moves
+    @Test
+    void shortFileIsRejected() throws IOException {
+        Path file = dir.resolve("moves.log");
+        MoveLog log = MoveLog.create(file, new PackedBoard(3, 3));
+        log.record(Move.flip(1, 1));
+        log.record(Move.flip(1, 1));
+        log.close();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(MoveLog.HEADER_BYTES + MoveLog.RECORD_BYTES);
+        }
+        assertThrows(IOException.class, () -> MoveLog.load(file));
+        assertEquals(MoveLog.HEADER_BYTES + MoveLog.RECORD_BYTES, Files.size(file));
+
+        Files.write(file, new byte[10]);
+        assertThrows(IOException.class, () -> MoveLog.load(file));
+    }
+}
@@ -0,0 +1,136 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenAITest {
+    FakeOpenAI api; // Local fake of the image generation endpoint
+    HttpClient client = HttpClient.newHttpClient();
+    String model; // Model set before the test, put back after it
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new FakeOpenAI();
+        model = OpenAI.OPENAI_IMAGE_MODEL;
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-2";
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+        OpenAI.OPENAI_IMAGE_MODEL = model;
+    }
+
+    // A 429 is retried once the time the API asked for has passed
+    @Test
+    void rateLimitedCallWaitsForRetryAfter() throws Exception {
+        api.reply(429, "1");
+        String url = OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat").get(10, TimeUnit.SECONDS);
+
+        assertTrue(url.endsWith(".png"));
+        assertEquals(2, api.callCount());
+        long waited = api.calls.get(1) - api.calls.get(0);
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(900), "retried after " + waited / 1_000_000 + " ms");
+    }
+
+    // A Retry-After longer than the cap is cut down to it, instead of holding back every call for an hour
+    @Test
+    void longRetryAfterIsCapped() throws Exception {
+        api.reply(429, "3600");
+        String url = OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat").get(10, TimeUnit.SECONDS);
+
+        assertTrue(url.endsWith(".png"));
+        long waited = api.calls.get(1) - api.calls.get(0);
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(1900) && waited < TimeUnit.SECONDS.toNanos(5),
+                "retried after " + waited / 1_000_000 + " ms");
+    }
+
+    // Server errors are retried until the API answers
+    @Test
+    void serverErrorIsRetried() throws Exception {
+        api.reply(503).reply(503);
+        String url = OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat").get(10, TimeUnit.SECONDS);
+
+        assertTrue(url.endsWith(".png"));
+        assertEquals(3, api.callCount());
+    }
+
+    // A rejected prompt fails right away, sending it again would not help
+    @Test
+    void badRequestIsNotRetried() {
+        api.reply(400);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat").get(10, TimeUnit.SECONDS));
+
+        OpenAIException failure = assertInstanceOf(OpenAIException.class, e.getCause());
+        assertEquals(OpenAIException.Kind.REJECTED, failure.getKind());
+        assertEquals(400, failure.getStatus());
+        assertEquals(1, api.callCount());
+    }
+
+    // Cancelling a call that never answers gives its permit back to the limiter
+    @Test
+    void cancellingReleasesTheLimiter() throws Exception {
+        int before = inFlight();
+        api.hold();
+        CompletableFuture<String> url = OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat");
+        api.awaitCalls(1);
+        assertEquals(before + 1, inFlight());
+
+        url.cancel(true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight() > before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, inFlight());
+        assertTrue(OpenAI.fetchImageAsync(client, api.apiUrl(), "key", "a cat").get(10, TimeUnit.SECONDS).endsWith(".png"));
+    }
+
+    // Models that take n ask for a whole batch in one call
+    @Test
+    void batchIsOneCall() throws Exception {
+        List<String> urls = OpenAI.fetchImagesAsync(client, api.apiUrl(), "key", "a cat", 3).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, urls.size());
+        assertEquals(1, api.callCount());
+    }
+
+    // dall-e-3 sends a batch as single calls, and keeps the images that arrived when some of them fail
+    @Test
+    void dallE3BatchKeepsPartialResults() throws Exception {
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-3";
+        api.reply(400);
+        List<String> urls = OpenAI.fetchImagesAsync(client, api.apiUrl(), "key", "a cat", 3).get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, urls.size());
+        assertEquals(3, api.callCount());
+    }
+
+    // dall-e-3 fails the batch only when none of its calls returned an image
+    @Test
+    void dallE3BatchFailsWhenEveryCallFails() {
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-3";
+        api.reply(400).reply(400);
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> OpenAI.fetchImagesAsync(client, api.apiUrl(), "key", "a cat", 2).get(10, TimeUnit.SECONDS));
+
+        assertEquals(OpenAIException.Kind.REJECTED, assertInstanceOf(OpenAIException.class, e.getCause()).getKind());
+    }
+
+    // Calls holding a permit of the shared limiter
+    static int inFlight() {
+        synchronized (OpenAI.LIMITER) {
+            return OpenAI.LIMITER.inFlight;
+        }
+    }
+}
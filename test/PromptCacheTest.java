@@ -0,0 +1,157 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.image.BufferedImage;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptCacheTest {
+    FakeOpenAI api; // Serves the images the generator points at
+    HttpClient client = HttpClient.newHttpClient();
+    AtomicInteger generated = new AtomicInteger(); // Calls to the generator so far
+
+    @TempDir
+    Path cacheDir; // Disk cache of the images downloaded during the test
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new FakeOpenAI();
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+    }
+
+    PromptCache cache(ImageLoader images, long maxBytes) {
+        return new PromptCache(images, cacheDir.resolve("prompts.idx"), Duration.ofHours(1), maxBytes);
+    }
+
+    // A generator handing out the image with the given number, counting its calls
+    Function<String, CompletableFuture<String>> image(int number) {
+        return prompt -> {
+            generated.incrementAndGet();
+            return CompletableFuture.completedFuture(api.base() + "/images/" + number + ".png");
+        };
+    }
+
+    BufferedImage get(PromptCache cache, String prompt, Function<String, CompletableFuture<String>> generator) throws Exception {
+        return cache.get(prompt, generator, (stage, percent) -> { }).get(10, TimeUnit.SECONDS);
+    }
+
+    // Callers asking for the same prompt at once share one generation, which only stops once every one of them cancelled
+    @Test
+    void concurrentCallersShareOneGeneration() throws Exception {
+        PromptCache cache = cache(new ImageLoader(client, cacheDir, 8), 1 << 20);
+        CompletableFuture<String> url = new CompletableFuture<>();
+        Function<String, CompletableFuture<String>> generator = prompt -> {
+            generated.incrementAndGet();
+            return url;
+        };
+        CompletableFuture<BufferedImage> first = cache.get("a cat", generator, (stage, percent) -> { });
+        CompletableFuture<BufferedImage> second = cache.get(" a cat ", generator, (stage, percent) -> { });
+        CompletableFuture<BufferedImage> third = cache.get("a cat", generator, (stage, percent) -> { });
+        assertEquals(1, generated.get());
+        assertEquals(2, cache.getCoalesced());
+
+        first.cancel(true);
+        assertFalse(url.isCancelled()); // Still wanted by the others
+        url.complete(api.base() + "/images/1.png");
+        assertSame(second.get(10, TimeUnit.SECONDS), third.get(10, TimeUnit.SECONDS));
+
+        CompletableFuture<String> abandoned = new CompletableFuture<>();
+        CompletableFuture<BufferedImage> dog = cache.get("a dog", prompt -> abandoned, (stage, percent) -> { });
+        dog.cancel(true);
+        assertTrue(abandoned.isCancelled()); // The last caller left, so the generation stops
+    }
+
+    // A cached prompt is served until it expires, then generated again, and an expired image still serves when that fails
+    @Test
+    void expiredPromptIsGeneratedAgain() throws Exception {
+        PromptCache cache = cache(new ImageLoader(client, cacheDir, 8), 1 << 20);
+        BufferedImage first = get(cache, "a cat", image(1));
+        assertSame(first, get(cache, "a cat", image(2)));
+        assertEquals(1, generated.get());
+        assertEquals(1, cache.getHits());
+
+        cache.ttl = Duration.ZERO;
+        Thread.sleep(5);
+        assertNotNull(get(cache, "a cat", image(2)));
+        assertEquals(2, generated.get());
+        assertEquals(2, cache.getMisses());
+
+        Thread.sleep(5);
+        BufferedImage stale = get(cache, "a cat", prompt -> CompletableFuture.failedFuture(new IllegalStateException("offline")));
+        assertNotNull(stale);
+        assertEquals(1, cache.getStaleHits());
+    }
+
+    // Going over the byte budget evicts the least recently used prompt and deletes its image
+    @Test
+    void leastRecentlyUsedPromptIsEvicted() throws Exception {
+        ImageLoader images = new ImageLoader(client, cacheDir, 8);
+        PromptCache cache = cache(images, 1 << 20);
+        get(cache, "a cat", image(1));
+        get(cache, "a dog", image(2));
+        String dog = cache.lookup("a dog").hash;
+        cache.maxBytes = cache.totalBytes + images.size(dog) / 2; // Room for two images, not three
+        get(cache, "a cat", image(1)); // The dog is now the least recently used
+
+        get(cache, "a fish", image(3));
+        assertNull(cache.lookup("a dog"));
+        assertFalse(images.contains(dog));
+        assertNotNull(cache.lookup("a cat"));
+        assertNotNull(cache.lookup("a fish"));
+        assertEquals(images.size(cache.lookup("a cat").hash) + images.size(cache.lookup("a fish").hash), cache.totalBytes);
+    }
+
+    // Prompts sharing one image count its bytes once, and the image is only deleted once no prompt points at it anymore
+    @Test
+    void sharedImageIsCountedOnce() throws Exception {
+        ImageLoader images = new ImageLoader(client, cacheDir, 8);
+        PromptCache cache = cache(images, 1 << 20);
+        get(cache, "a cat", image(1));
+        get(cache, "a kitten", image(1));
+        String shared = cache.lookup("a cat").hash;
+        assertEquals(shared, cache.lookup("a kitten").hash);
+        assertEquals(images.size(shared), cache.totalBytes);
+        assertEquals(2, cache.references.get(shared));
+
+        cache.ttl = Duration.ZERO;
+        Thread.sleep(5);
+        get(cache, "a cat", image(2));
+        assertTrue(images.contains(shared)); // The kitten still points at it
+        get(cache, "a kitten", image(3));
+        assertFalse(images.contains(shared));
+        assertNull(cache.references.get(shared));
+    }
+
+    // A cached image whose bytes cannot be read anymore is a miss, and the prompt is generated again
+    @Test
+    void unreadableCachedImageIsGeneratedAgain() throws Exception {
+        get(cache(new ImageLoader(client, cacheDir, 8), 1 << 20), "a cat", image(1));
+        PromptCache restarted = cache(new ImageLoader(client, cacheDir, 8), 1 << 20); // Nothing held in memory
+        Files.write(cacheDir.resolve("blobs").resolve(restarted.lookup("a cat").hash), "broken".getBytes(StandardCharsets.UTF_8));
+
+        assertNotNull(get(restarted, "a cat", image(2)));
+        assertEquals(2, generated.get());
+        assertEquals(0, restarted.getHits());
+        assertEquals(1, restarted.getMisses());
+    }
+}
@@ -0,0 +1,108 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PuzzleLoaderTest {
+    FakeOpenAI api; // Local fake of the image generation endpoint
+    HttpClient client = HttpClient.newHttpClient();
+    String model; // Model set before the test, put back after it
+    List<String> stages = new CopyOnWriteArrayList<>(); // Stages the loader reported, in order
+
+    @TempDir
+    Path cacheDir; // Disk cache of the images downloaded during the test
+
+    @BeforeEach
+    void setUp() throws Exception {
+        api = new FakeOpenAI();
+        model = OpenAI.OPENAI_IMAGE_MODEL;
+        OpenAI.OPENAI_IMAGE_MODEL = "dall-e-2";
+    }
+
+    @AfterEach
+    void tearDown() {
+        api.close();
+        OpenAI.OPENAI_IMAGE_MODEL = model;
+    }
+
+    PuzzleLoader loader() {
+        return loader(null);
+    }
+
+    PuzzleLoader loader(ImagePrefetcher prefetcher) {
+        ImageLoader images = new ImageLoader(client, cacheDir, 8);
+        PromptCache prompts = new PromptCache(images, cacheDir.resolve("prompts.idx"), Duration.ofHours(1), 1 << 20);
+        return new PuzzleLoader(client, api.apiUrl(), "key", Duration.ofSeconds(30), prompts, prefetcher);
+    }
+
+    // A prompt goes all the way to a sliced board, and the same prompt again comes from the cache without an API call
+    @Test
+    void promptBecomesBoard() throws Exception {
+        PuzzleLoader loader = loader();
+        PuzzleBoard board = loader.load("a cat", 4, 4, (stage, percent) -> stages.add(stage)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(16, board.getPieces().size());
+        assertEquals("Ready", stages.get(stages.size() - 1));
+        assertEquals(1, api.callCount());
+
+        loader.load("a cat", 2, 2, (stage, percent) -> { }).get(10, TimeUnit.SECONDS);
+        assertEquals(1, api.callCount());
+    }
+
+    // Cancelling a load while the image is being generated stops the API call and frees its permit
+    @Test
+    void cancellingStopsGeneration() throws Exception {
+        int before = OpenAITest.inFlight();
+        api.hold();
+        CompletableFuture<PuzzleBoard> board = loader().load("a cat", 4, 4, (stage, percent) -> stages.add(stage));
+        api.awaitCalls(1);
+        assertEquals(before + 1, OpenAITest.inFlight());
+
+        board.cancel(true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (OpenAITest.inFlight() > before && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, OpenAITest.inFlight());
+        assertTrue(board.isCancelled());
+        assertFalse(stages.contains("Slicing puzzle"));
+        assertEquals(1, api.callCount());
+    }
+
+    // Cancelling a load that waits on the prefetch pool stops waiting, so the image on its way goes to the next caller
+    @Test
+    void cancellingLeavesThePool() throws Exception {
+        ImagePrefetcher prefetcher = new ImagePrefetcher(client, api.apiUrl(), "key", new ImageLoader(client, cacheDir, 8), 1, 1);
+        api.hold().hold(); // The prefetch and the refill when the load takes from the pool
+        prefetcher.prefetch("a cat");
+        api.awaitCalls(1);
+        CompletableFuture<PuzzleBoard> board = loader(prefetcher).load("a cat", 4, 4, (stage, percent) -> stages.add(stage));
+        assertEquals(1, waiting(prefetcher, "a cat"));
+
+        board.cancel(true);
+        assertEquals(0, waiting(prefetcher, "a cat"));
+        assertEquals(1, prefetcher.getHits());
+        api.awaitCalls(2);
+        Thread.sleep(200);
+        assertEquals(2, api.callCount()); // The cancelled wait did not fall back to generating an image of its own
+    }
+
+    static int waiting(ImagePrefetcher prefetcher, String prompt) {
+        ImagePrefetcher.Pool pool = prefetcher.pools.get(prompt);
+        synchronized (pool) {
+            return pool.waiting.size();
+        }
+    }
+}
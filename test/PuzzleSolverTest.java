@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PuzzleSolverTest {
+    // A shuffled board is rebuilt piece for piece and orientation for orientation, from the edges alone
+    @Test
+    void rebuildsShuffledBoard() {
+        for (int size : new int[]{4, 8}) {
+            PuzzleBoard board = new PuzzleBoard(size, size, picture(size, 1));
+            board.shuffle(size, ShuffleEngine.Difficulty.HARD);
+            PuzzleSolver.Solution solution = PuzzleSolver.solve(board);
+
+            for (int cell = 0; cell < size * size; cell++) {
+                ImagePiece piece = solution.pieces[cell];
+                assertEquals(cell, piece.correctRow * size + piece.correctCol, size + "x" + size + " cell " + cell);
+                assertEquals(0, solution.orientations[cell], size + "x" + size + " cell " + cell);
+            }
+
+            List<Move> moves = PuzzleSolver.movesTo(board, solution);
+            for (Move move : moves) {
+                move.applyTo(board);
+            }
+            assertTrue(board.isSolved(), size + "x" + size);
+        }
+    }
+
+    // Following the hints of a good rebuild solves the board, every hint settles one more cell
+    @Test
+    void hintsSolveBoard() {
+        PuzzleBoard board = new PuzzleBoard(5, 5, picture(5, 2));
+        board.shuffle(3, ShuffleEngine.Difficulty.HARD);
+        PuzzleSolver.Solution solution = PuzzleSolver.solve(board);
+
+        for (int step = 0; step < 25 * 4 && !board.isSolved(); step++) {
+            Move hint = PuzzleSolver.hint(board, solution);
+            assertNotNull(hint, "no hint after " + step + " moves");
+            hint.applyTo(board);
+        }
+        assertTrue(board.isSolved());
+        assertNull(PuzzleSolver.hint(board, solution));
+    }
+
+    // Hints follow the rebuilt layout even where it is wrong, so a mistake of the solver shows instead of being hidden
+    @Test
+    void hintsFollowTheSolutionNotTheAnswer() {
+        PuzzleBoard board = new PuzzleBoard(3, 3, picture(3, 3));
+        int[] identity = new int[9];
+        for (int i = 0; i < 9; i++) {
+            identity[i] = i;
+        }
+        board.applyLayout(new ShuffleEngine.Layout(0, null, identity, new byte[9]));
+        assertTrue(board.isSolved());
+
+        ImagePiece[] wrong = board.getPieces().toArray(new ImagePiece[0]);
+        ImagePiece first = wrong[0];
+        wrong[0] = wrong[1];
+        wrong[1] = first;
+        boolean[] sure = new boolean[9];
+        Arrays.fill(sure, true);
+        PuzzleSolver.Solution solution = new PuzzleSolver.Solution(3, 3, wrong, new int[9], 0, sure);
+        assertEquals(Move.swap(0, 0, 0, 1).toString(), PuzzleSolver.hint(board, solution).toString());
+
+        sure[0] = false;
+        sure[1] = false;
+        assertNull(PuzzleSolver.hint(board, solution)); // Cells the solver is not sure of are never hinted
+    }
+
+    // Smooth color fields with a little noise, so every piece is different and its edges tell it apart
+    static BufferedImage picture(int size, long seed) {
+        int side = size * 40;
+        Random random = new Random(seed);
+        int grid = 6;
+        double[][][] field = new double[grid + 1][grid + 1][3];
+        for (double[][] row : field) {
+            for (double[] point : row) {
+                for (int c = 0; c < 3; c++) {
+                    point[c] = random.nextDouble() * 255;
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(side, side, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < side; y++) {
+            for (int x = 0; x < side; x++) {
+                double gx = x * (double) grid / side, gy = y * (double) grid / side;
+                int ix = (int) gx, iy = (int) gy;
+                double fx = gx - ix, fy = gy - iy;
+                fx = fx * fx * (3 - 2 * fx);
+                fy = fy * fy * (3 - 2 * fy);
+                int rgb = 0;
+                for (int c = 0; c < 3; c++) {
+                    double v = field[iy][ix][c] * (1 - fx) * (1 - fy) + field[iy][ix + 1][c] * fx * (1 - fy)
+                            + field[iy + 1][ix][c] * (1 - fx) * fy + field[iy + 1][ix + 1][c] * fx * fy;
+                    v += Math.sin(x * 0.05 * (c + 1) + y * 0.03) * 20 + random.nextInt(7) - 3;
+                    rgb = rgb << 8 | Math.max(0, Math.min(255, (int) v));
+                }
+                image.setRGB(x, y, rgb);
+            }
+        }
+        return image;
+    }
+}
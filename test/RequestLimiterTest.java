@@ -0,0 +1,94 @@
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestLimiterTest {
+    // One call in flight and one waiting, more than that is refused
+    @Test
+    void fullQueueIsRefused() {
+        RequestLimiter limiter = new RequestLimiter(1000, 10, 1, 1, Runnable::run);
+        limiter.submit(CompletableFuture::new);
+        limiter.submit(CompletableFuture::new);
+        assertEquals(1, limiter.queued());
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> limiter.<Object>submit(CompletableFuture::new).get(1, TimeUnit.SECONDS));
+        assertEquals(OpenAIException.Kind.OVERLOADED, assertInstanceOf(OpenAIException.class, e.getCause()).getKind());
+    }
+
+    // Cancelling the call in flight hands its permit to the one waiting
+    @Test
+    void cancellingInFlightStartsTheNext() {
+        RequestLimiter limiter = new RequestLimiter(1000, 10, 1, 1, Runnable::run);
+        CompletableFuture<Object> sent = new CompletableFuture<>();
+        CompletableFuture<Object> first = limiter.submit(() -> sent);
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<String> second = limiter.submit(() -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("second");
+        });
+        assertEquals(0, started.get());
+
+        first.cancel(true);
+        assertTrue(sent.isCancelled());
+        assertEquals(1, started.get());
+        assertEquals("second", second.join());
+    }
+
+    // A call cancelled while it waits is never sent
+    @Test
+    void cancelledWhileWaitingIsNeverSent() {
+        RequestLimiter limiter = new RequestLimiter(1000, 10, 1, 1, Runnable::run);
+        CompletableFuture<Object> sent = new CompletableFuture<>();
+        limiter.submit(() -> sent);
+        AtomicInteger started = new AtomicInteger();
+        CompletableFuture<Object> waiting = limiter.submit(() -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("waiting");
+        });
+
+        waiting.cancel(true);
+        sent.complete("first");
+        assertEquals(0, started.get());
+        assertEquals(0, limiter.queued());
+        assertEquals(0, limiter.inFlight);
+    }
+
+    // A call cancelled while it waits gives its place in the queue back at once, before any permit frees
+    @Test
+    void cancelledWhileWaitingLeavesTheQueue() throws Exception {
+        RequestLimiter limiter = new RequestLimiter(1000, 10, 1, 1, Runnable::run);
+        CompletableFuture<Object> sent = new CompletableFuture<>();
+        limiter.submit(() -> sent);
+        limiter.submit(CompletableFuture::new).cancel(true);
+        assertEquals(0, limiter.queued());
+
+        CompletableFuture<String> next = limiter.submit(() -> CompletableFuture.completedFuture("next"));
+        assertEquals(1, limiter.queued()); // Queued, not refused as OVERLOADED
+        sent.complete("first");
+        assertEquals("next", next.get(1, TimeUnit.SECONDS));
+        assertEquals(0, limiter.inFlight);
+    }
+
+    // Calls past the burst are spaced out at the rate, and a pause holds back every call
+    @Test
+    void tokensSpaceCallsOut() {
+        RequestLimiter limiter = new RequestLimiter(10, 1, 4, 4, Runnable::run);
+        assertEquals(0, limiter.reserve());
+        long wait = limiter.reserve();
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(50) && wait <= TimeUnit.MILLISECONDS.toNanos(100), "waits " + wait);
+
+        limiter.pause(Duration.ofSeconds(5));
+        assertFalse(limiter.reserve() < TimeUnit.SECONDS.toNanos(4));
+    }
+}
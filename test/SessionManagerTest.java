@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SessionManagerTest {
+    @TempDir
+    Path dir; // Where the sessions stream their move logs
+    SessionManager manager;
+
+    @BeforeEach
+    void setUp() {
+        manager = new SessionManager(Duration.ofHours(1), Duration.ofHours(1));
+        manager.logDir = dir;
+    }
+
+    @AfterEach
+    void tearDown() {
+        manager.shutdown();
+    }
+
+    // A recovered session keeps its id and its file, and sessions started after it never take over that file
+    @Test
+    void recoveredSessionKeepsItsId() throws IOException {
+        manager.create(6, 6);
+        PuzzleSession crashed = manager.create(6, 6);
+        crashed.apply(Move.swap(0, 0, 5, 5));
+        crashed.apply(Move.rotateLeft(1, 2));
+        crashed.apply(Move.flip(3, 3));
+        PackedBoard played = (PackedBoard) crashed.getBoard();
+        manager.shutdown();
+
+        manager = new SessionManager(Duration.ofHours(1), Duration.ofHours(1));
+        manager.logDir = dir;
+        PuzzleSession recovered = manager.recover(manager.logFile(2));
+        assertEquals(2, recovered.getId());
+        PuzzleSession next = manager.create(6, 6);
+        assertEquals(3, next.getId());
+        recovered.apply(Move.flip(0, 0));
+        manager.shutdown();
+
+        MoveLog log = MoveLog.load(dir.resolve("session-2.log"));
+        assertEquals(4, log.size());
+        assertEquals(played.getSeed(), log.seed);
+        PackedBoard rebuilt = new PackedBoard(6, 6);
+        log.replay(rebuilt);
+        log.close();
+        played.flipPiece(0, 0);
+        assertArrayEquals(played.pieces, rebuilt.pieces);
+        assertArrayEquals(played.orientations, rebuilt.orientations);
+    }
+
+    // The same log cannot be recovered into two open sessions
+    @Test
+    void sessionIsRecoveredOnce() throws IOException {
+        manager.create(4, 4);
+        manager.shutdown();
+
+        manager = new SessionManager(Duration.ofHours(1), Duration.ofHours(1));
+        manager.logDir = dir;
+        manager.recover(manager.logFile(1));
+        assertThrows(IOException.class, () -> manager.recover(manager.logFile(1)));
+    }
+}
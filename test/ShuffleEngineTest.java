@@ -0,0 +1,73 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShuffleEngineTest {
+    // The same seed and difficulty give the same layout every time, and every board shuffled from it looks the same
+    @Test
+    void sameSeedSameLayout() {
+        for (ShuffleEngine.Difficulty difficulty : ShuffleEngine.Difficulty.values()) {
+            for (int size : new int[] {1, 2, 9, 100, 40_000}) {
+                ShuffleEngine.Layout first = ShuffleEngine.layout(size, 42, difficulty);
+                ShuffleEngine.Layout second = ShuffleEngine.layout(size, 42, difficulty);
+                assertArrayEquals(first.permutation, second.permutation, difficulty + " " + size);
+                assertArrayEquals(first.orientations, second.orientations, difficulty + " " + size);
+            }
+        }
+
+        PackedBoard packed = new PackedBoard(5, 5);
+        ConcurrentBoard concurrent = new ConcurrentBoard(5, 5);
+        packed.shuffle(7, ShuffleEngine.Difficulty.MEDIUM);
+        concurrent.shuffle(7, ShuffleEngine.Difficulty.MEDIUM);
+        ConcurrentBoard.Snapshot snapshot = concurrent.snapshot();
+        assertArrayEquals(packed.pieces, snapshot.pieces);
+        assertArrayEquals(packed.orientations, snapshot.orientations);
+        assertEquals(7, packed.getSeed());
+        assertEquals(ShuffleEngine.Difficulty.MEDIUM, concurrent.getDifficulty());
+    }
+
+    // Other seeds give other layouts, and each difficulty moves as many pieces as it says
+    @Test
+    void difficultyShapesLayout() {
+        ShuffleEngine.Layout hard = ShuffleEngine.layout(100, 1, ShuffleEngine.Difficulty.HARD);
+        assertFalse(Arrays.equals(hard.permutation, ShuffleEngine.layout(100, 2, ShuffleEngine.Difficulty.HARD).permutation));
+        assertEquals(100, displaced(hard));
+        assertEquals(25, displaced(ShuffleEngine.layout(100, 1, ShuffleEngine.Difficulty.EASY)));
+        assertEquals(50, displaced(ShuffleEngine.layout(100, 1, ShuffleEngine.Difficulty.MEDIUM)));
+        for (byte orientation : ShuffleEngine.layout(100, 1, ShuffleEngine.Difficulty.EASY).orientations) {
+            assertEquals(0, orientation);
+        }
+    }
+
+    // One cycle of k pieces takes k - 1 swaps, a half turn two moves and a flip one more
+    @Test
+    void estimateCountsFewestMoves() {
+        assertEquals(0, ShuffleEngine.estimate(new int[] {0, 1, 2, 3}, new byte[4]));
+        assertEquals(3, ShuffleEngine.estimate(new int[] {1, 2, 3, 0}, new byte[4]));
+        assertEquals(2 + 1 + 1 + 1, ShuffleEngine.estimate(new int[] {1, 0, 2, 3},
+                new byte[] {2, 3, (byte) Orientation.flip(0), 0}));
+        ShuffleEngine.Layout layout = ShuffleEngine.layout(50, 3, ShuffleEngine.Difficulty.HARD);
+        assertTrue(layout.estimate() >= 49); // Every piece is in one cycle
+    }
+
+    // An unknown difficulty falls back to HARD instead of failing every shuffle
+    @Test
+    void unknownDifficultyIsHard() {
+        assertEquals(ShuffleEngine.Difficulty.EASY, ShuffleEngine.difficulty(" easy "));
+        assertEquals(ShuffleEngine.Difficulty.HARD, ShuffleEngine.difficulty("impossible"));
+        assertEquals(ShuffleEngine.Difficulty.HARD, ShuffleEngine.difficulty(null));
+    }
+
+    static int displaced(ShuffleEngine.Layout layout) {
+        int displaced = 0;
+        for (int i = 0; i < layout.permutation.length; i++) {
+            displaced += layout.permutation[i] != i ? 1 : 0;
+        }
+        return displaced;
+    }
+}
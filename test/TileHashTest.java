@@ -0,0 +1,89 @@
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TileHashTest {
+    // A mirror-symmetric tile gets the same fingerprint flipped as unflipped at any size, not only multiples of the grid
+    @Test
+    void mirroredTileKeepsItsFingerprint() {
+        for (int size : new int[]{10, 13, 64, 341}) {
+            BufferedImage tile = mirrored(size, size, size + 3);
+            long[] hashes = TileHash.compute(tile);
+            assertTrue(TileHash.sameLook(tile, tile, Orientation.FLIPPED), "size " + size);
+            assertEquals(hashes[0], hashes[Orientation.FLIPPED], "size " + size);
+        }
+    }
+
+    // A tile that looks the same after a half turn gets the same fingerprint for it, also when it is not square
+    @Test
+    void halfTurnSymmetricTileKeepsItsFingerprint() {
+        BufferedImage tile = halfTurned(11, 17);
+        long[] hashes = TileHash.compute(tile);
+        assertTrue(TileHash.sameLook(tile, tile, 2));
+        assertEquals(hashes[0], hashes[2]);
+    }
+
+    // A flipped symmetric piece on a board counts as in place, a flipped ordinary one does not
+    @Test
+    void flippedSymmetricPieceIsCorrect() {
+        BufferedImage image = noise(30, 30, 1);
+        BufferedImage corner = mirrored(10, 10, 2);
+        image.getGraphics().drawImage(corner, 0, 0, null);
+        PuzzleBoard board = new PuzzleBoard(3, 3, image);
+
+        int[] permutation = new int[9];
+        byte[] orientations = new byte[9];
+        for (int i = 0; i < 9; i++) {
+            permutation[i] = i;
+        }
+        orientations[0] = Orientation.FLIPPED;
+        board.applyLayout(new ShuffleEngine.Layout(0, null, permutation, orientations));
+        assertTrue(board.isSolved());
+
+        orientations[0] = 0;
+        orientations[4] = Orientation.FLIPPED;
+        board.applyLayout(new ShuffleEngine.Layout(0, null, permutation, orientations));
+        assertFalse(board.isSolved());
+        assertEquals(8, board.correctCount);
+    }
+
+    // Random pixels, the right half a mirror image of the left
+    static BufferedImage mirrored(int width, int height, long seed) {
+        BufferedImage tile = noise(width, height, seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                tile.setRGB(width - 1 - x, y, tile.getRGB(x, y));
+            }
+        }
+        return tile;
+    }
+
+    // Random pixels, the bottom half the top half turned around
+    static BufferedImage halfTurned(int width, int height) {
+        BufferedImage tile = noise(width, height, 5);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (y * width + x < (height - 1 - y) * width + (width - 1 - x)) {
+                    tile.setRGB(width - 1 - x, height - 1 - y, tile.getRGB(x, y));
+                }
+            }
+        }
+        return tile;
+    }
+
+    static BufferedImage noise(int width, int height, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(1 << 24));
+            }
+        }
+        return image;
+    }
+}